@@ -0,0 +1,50 @@
+package ru.ant.rc.serial;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**CheckBypass1/2/3 filtering of SerialService over the mix of newer, older and repeated commands.
+ * @author Ant
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandFilterBenchmark {
+    private static final int SIZE = 1024;
+
+    private final CommandFilter commandFilter = new CommandFilter(20);
+    private final Command[] commands = new Command[SIZE];
+    private final int[] queueSizes = new int[SIZE];
+    private Command lastCommand;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long timeMillis = 0;
+        for (int i = 0; i < SIZE; i++) {
+            //Every 4th command is late, every 8th repeats the speeds
+            timeMillis += random.nextInt(10);
+            long commandTime = (i % 4 == 0) ? timeMillis - 20 : timeMillis;
+            int speed = (i % 8 == 0) ? 0 : random.nextInt(201) - 100;
+            commands[i] = new TractorCommand(speed, speed, commandTime);
+            queueSizes[i] = random.nextInt(25);
+        }
+        lastCommand = TractorCommand.STOP(0);
+    }
+
+    @Benchmark
+    public boolean bypass() {
+        int i = index++ & (SIZE - 1);
+        Command command = commands[i];
+        boolean bypassed = commandFilter.isBypassed(command, lastCommand, queueSizes[i]);
+        lastCommand = (i == SIZE - 1) ? TractorCommand.STOP(0) : command;
+        return bypassed;
+    }
+}
@@ -0,0 +1,50 @@
+package ru.ant.rc.serial;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**Several producers put joystick samples into CommandQueue while single consumer polls it,
+ * the way applications and SerialService use it, in both SerialService.QueueMode variants.
+ * @author Ant
+ * @version 1.0
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandQueueBenchmark {
+    //Keeps the queue bounded when producers outrun the consumer, as CheckBypass3 does
+    private static final int MAX_QUEUE_SIZE = 20;
+
+    @Param({"priority", "conflating"})
+    private String queueMode;
+
+    private CommandQueue commandQueue;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        commandQueue = "conflating".equals(queueMode) ? new ConflatingCommandQueue() : new CommandQueue();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public void put() {
+        if (commandQueue.size() > MAX_QUEUE_SIZE) return;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        commandQueue.put(new TractorCommand(random.nextInt(-100, 101), random.nextInt(-100, 101), System.currentTimeMillis()));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Command poll() throws InterruptedException {
+        Command command = commandQueue.poll(1, TimeUnit.MILLISECONDS);
+        commandQueue.size();
+        return command;
+    }
+}
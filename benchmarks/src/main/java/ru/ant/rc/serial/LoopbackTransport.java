@@ -0,0 +1,125 @@
+package ru.ant.rc.serial;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**Transport answering every written command at once from the writing thread.
+ * Binary frames get the acknowledge frame, "Voltage" gets a number,
+ * other text commands get Chassis2WD style "command complete" echo.
+ * Allocates nothing per command.
+ * @author Ant
+ * @version 1.0
+ */
+public class LoopbackTransport implements Transport {
+    private static final byte[] VOLTAGE = "Voltage".getBytes();
+    private static final byte[] VOLTAGE_ANSWER = "523\n".getBytes();
+    private static final byte[] COMPLETE_ANSWER = "\" command complete\n".getBytes();
+
+    private final byte[] answer = new byte[512];
+    private int answerLength = 0;
+    private int answerPosition = 0;
+    private Runnable dataListener;
+
+    private final InputStream in = new InputStream() {
+        @Override
+        public int available() {
+            return answerLength - answerPosition;
+        }
+
+        @Override
+        public int read() {
+            return (answerPosition < answerLength) ? answer[answerPosition++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int count = Math.min(len, answerLength - answerPosition);
+            if (count <= 0) return -1;
+            System.arraycopy(answer, answerPosition, b, off, count);
+            answerPosition += count;
+            return count;
+        }
+    };
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+            throw new UnsupportedOperationException("Frames are expected to be written at once");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            answer(b, off, len);
+            if (dataListener != null) dataListener.run();
+        }
+    };
+
+    private void answer(byte[] command, int offset, int length) {
+        answerPosition = 0;
+        answerLength = 0;
+        if ((command[offset] & 0xFF) == LineBuffer.FRAME_START) {
+            append(command, offset, LineBuffer.FRAME_ACK_LENGTH - 1);
+            answer[answerLength++] = LineBuffer.FRAME_STATUS_OK;
+            return;
+        }
+        //Tag is echoed before the answer
+        int tagLength = 0;
+        if (command[offset] == '#') {
+            while (command[offset + tagLength++] != ' ');
+            append(command, offset, tagLength);
+        }
+        if (startsWith(command, offset + tagLength, VOLTAGE)) {
+            append(VOLTAGE_ANSWER, 0, VOLTAGE_ANSWER.length);
+            return;
+        }
+        answer[answerLength++] = '"';
+        append(command, offset + tagLength, length - tagLength - 1);
+        append(COMPLETE_ANSWER, 0, COMPLETE_ANSWER.length);
+    }
+
+    private boolean startsWith(byte[] command, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (command[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        System.arraycopy(bytes, offset, answer, answerLength, length);
+        answerLength += length;
+    }
+
+    @Override
+    public String getName() {
+        return "Loopback";
+    }
+
+    @Override
+    public InputStream getIn() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOut() {
+        return out;
+    }
+
+    @Override
+    public void setDataListener(Runnable dataListener) {
+        this.dataListener = dataListener;
+    }
+
+    @Override
+    public void removeDataListener() {
+        this.dataListener = null;
+    }
+
+    @Override
+    public void setBaudRate(int baudRate) {
+    }
+
+    @Override
+    public void close() {
+        this.dataListener = null;
+    }
+}
@@ -0,0 +1,55 @@
+package ru.ant.rc.serial;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ant.rc.serial.exception.CommPortException;
+
+import java.util.concurrent.TimeUnit;
+
+/**SerialCommunicator framing and parsing of the whole round trip against the loopback transport.
+ * The link itself costs nothing here, so only the host side of the stack is measured.
+ * @author Ant
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialCommunicatorBenchmark {
+    private static final int DIGITAL_OPCODE = 0x01;
+
+    private SerialConnection serialConnection;
+    private SerialCommunicator serialCommunicator;
+    private int speed = 0;
+
+    @Setup
+    public void setUp() throws CommPortException {
+        Config config = new Config();
+        serialConnection = new SerialConnection(config);
+        serialConnection.init(new LoopbackTransport());
+        serialCommunicator = serialConnection.getSerialCommunicator();
+    }
+
+    @TearDown
+    public void tearDown() {
+        serialConnection.disconnect();
+    }
+
+    @Benchmark
+    public int numericAnswer() throws CommPortException {
+        return serialCommunicator.sendIntCommand("Voltage");
+    }
+
+    @Benchmark
+    public String digitalText() throws CommPortException {
+        speed = (speed + 1) & 0xFF;
+        return serialCommunicator.sendCommand("Digital:", -speed, speed);
+    }
+
+    @Benchmark
+    public String digitalFrame() throws CommPortException {
+        speed = (speed + 1) & 0xFF;
+        return serialCommunicator.sendFrame(DIGITAL_OPCODE, -speed, speed);
+    }
+}
@@ -0,0 +1,25 @@
+package ru.ant.rc.serial;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**Runs the benchmarks with the GC profiler attached, so allocation rate is reported along with
+ * throughput and latency percentiles.
+ * <p>
+ *   java -jar target/benchmarks.jar [JMH options] [benchmark regexp]
+ * </p>
+ * @author Ant
+ * @version 1.0
+ */
+public class SerialDriverBenchmarks {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,53 @@
+package ru.ant.rc.serial.arduino2wd;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**Vector mixing and tractor scaling of Arduino2WDSerialDriver mixers over the whole joystick range.
+ * @author Ant
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigitalCommandBenchmark {
+    private static final int SIZE = 1024;
+
+    @Param({"reference", "integer", "table"})
+    private String mixerType;
+
+    private WheelMixer wheelMixer;
+    private final int[] xs = new int[SIZE];
+    private final int[] ys = new int[SIZE];
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        IntegerWheelMixer integerMixer = new IntegerWheelMixer(100, 255);
+        if ("reference".equals(mixerType)) wheelMixer = new ReferenceWheelMixer(100, 255);
+        else if ("integer".equals(mixerType)) wheelMixer = integerMixer;
+        else wheelMixer = new TableWheelMixer(integerMixer, 100);
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            xs[i] = random.nextInt(201) - 100;
+            ys[i] = random.nextInt(201) - 100;
+        }
+    }
+
+    @Benchmark
+    public long vectorMixing() {
+        int i = index++ & (SIZE - 1);
+        return wheelMixer.mixVector(xs[i], ys[i]);
+    }
+
+    @Benchmark
+    public long tractorScaling() {
+        int i = index++ & (SIZE - 1);
+        return wheelMixer.mixTractor(xs[i], ys[i]);
+    }
+}
@@ -2,10 +2,13 @@ package ru.ant.rc.serial;
 
 import org.apache.log4j.Logger;
 import ru.ant.rc.serial.exception.CommPortException;
+import ru.ant.rc.serial.metrics.SerialMetrics;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created with IntelliJ IDEA.
@@ -15,14 +18,25 @@ import java.util.Date;
  * To change this template use File | Settings | File Templates.
  */
 public class ArduinoState {
+    //Fields of "Info" answer in order, delimited by '|'
+    static final int INFO_HARDWARE = 1;
+    private static final String[] INFO_COMMANDS = {"Version", "Hardware", "TotalRAM", "SketchSize", "TotalFlash",
+            "GccVersion", "LibcVersion", "SketchSourceName", "CompileDate", "GccCpuTarget"};
     private final int REFRESH_PERIOD;
+    private final int STREAM_PERIOD;
+    //Stream is considered lost if no telemetry came during several periods
+    private final int STREAM_LOST_PERIODS = 3;
     private long refreshLastTime = 0;
+    //Answer of the previous refresh is still awaited
+    private volatile boolean refreshPending = false;
+    private volatile long telemetryLastTime = 0;
+    private boolean streaming = false;
 
     private final Battery battery;
     private final String firmwareVersion;
     private final String hardwareType;
-    private int temperature;
-    private int freeRAM;
+    private volatile int temperature;
+    private volatile int freeRAM;
     private final int totalRAM;
     private final int sketchSize;
     private final int totalFlash;
@@ -30,46 +44,170 @@ public class ArduinoState {
     private final String buildLibcVersion;
     private final String buildSourceName;
     private final Date buildDate;
-    private int upTime;
+    private volatile int upTime;
     private final String buildCpuTarget;
     private final SerialCommunicator serialCommunicator;
+    private final SerialMetrics metrics;
+    /**Field indexes of {@link #getHistory() history}, voltage is raw, see {@link Battery#calibrate(int)}
+     */
+    public static final int HISTORY_VOLTAGE = 0;
+    public static final int HISTORY_TEMPERATURE = 1;
+    public static final int HISTORY_FREE_RAM = 2;
+    public static final int HISTORY_UP_TIME = 3;
+    private static final boolean[] HISTORY_COUNTERS = {false, false, false, true};
+    private final TelemetryHistory history;
 
     public ArduinoState(SerialCommunicator serialCommunicator, Config config) throws CommPortException {
+        this(serialCommunicator, config, null);
+    }
+
+    /**
+     * @param infoAnswer Already known "Info" answer, e.g. of {@link HardwareFingerprint}, or null to query it
+     */
+    public ArduinoState(SerialCommunicator serialCommunicator, Config config, String infoAnswer) throws CommPortException {
         REFRESH_PERIOD = Integer.parseInt(config.getOption(Config.STATE_REFRESH_PERIOD));
+        STREAM_PERIOD = Integer.parseInt(config.getOption(Config.STATE_STREAM_PERIOD, "1000"));
 
         this.serialCommunicator = serialCommunicator;
+        this.metrics = SerialMetrics.forRobot(config);
         this.battery = new Battery(config);
-        this.firmwareVersion = serialCommunicator.sendCommand("Version");
-        this.hardwareType = serialCommunicator.sendCommand("Hardware");
-        this.totalRAM = Integer.parseInt(serialCommunicator.sendCommand("TotalRAM"));
-        this.sketchSize = Integer.parseInt(serialCommunicator.sendCommand("SketchSize"));
-        this.totalFlash = Integer.parseInt(serialCommunicator.sendCommand("TotalFlash"));
-        this.buildGccVersion = serialCommunicator.sendCommand("GccVersion");
-        this.buildLibcVersion = serialCommunicator.sendCommand("LibcVersion");
-        this.buildSourceName = serialCommunicator.sendCommand("SketchSourceName");
+        this.history = new TelemetryHistory(HISTORY_COUNTERS,
+                Integer.parseInt(config.getOption(Config.TELEMETRY_HISTORY_BLOCKS, "32")),
+                parseWindows(config.getOption(Config.TELEMETRY_HISTORY_WINDOWS, "10,60")));
+        String[] info = (infoAnswer != null) ? splitInfo(infoAnswer) : queryInfo();
+        this.firmwareVersion = info[0];
+        this.hardwareType = info[1];
+        this.totalRAM = Integer.parseInt(info[2]);
+        this.sketchSize = Integer.parseInt(info[3]);
+        this.totalFlash = Integer.parseInt(info[4]);
+        this.buildGccVersion = info[5];
+        this.buildLibcVersion = info[6];
+        this.buildSourceName = info[7];
         Date buildDate;
         try {
-            buildDate = new SimpleDateFormat("MMM dd yyyy HH:mm:ss").parse(serialCommunicator.sendCommand("CompileDate"));
+            buildDate = new SimpleDateFormat("MMM dd yyyy HH:mm:ss").parse(info[8]);
         } catch (ParseException e) {
             buildDate = null;
             Logger logger = Logger.getLogger(this.getClass());
             logger.error(e.getMessage(), e);
         }
         this.buildDate = buildDate;
-        this.buildCpuTarget = serialCommunicator.sendCommand("GccCpuTarget");
+        this.buildCpuTarget = info[9];
+        if (STREAM_PERIOD > 0 && serialCommunicator.hasFeature("stream")) startStream();
+    }
+
+    //Firmware pushes "State" fields every STREAM_PERIOD, so refresh() does not use the link while they come
+    private void startStream() throws CommPortException {
+        serialCommunicator.setTelemetryListener(this::telemetryReceived);
+        serialCommunicator.sendCommand("Stream:" + STREAM_PERIOD);
+        streaming = true;
+    }
+
+    private void telemetryReceived(int[] values, int count) {
+        if (count < HISTORY_COUNTERS.length) return;
+        long timestamp = (new Date()).getTime();
+        applyState(values, timestamp);
+        telemetryLastTime = timestamp;
     }
 
+    private void applyState(int[] values, long timestamp) {
+        battery.setVoltage(values[HISTORY_VOLTAGE]);
+        temperature = values[HISTORY_TEMPERATURE];
+        freeRAM = values[HISTORY_FREE_RAM];
+        upTime = values[HISTORY_UP_TIME];
+        history.add(timestamp, values);
+    }
+
+    private static int[] parseWindows(String windowList) {
+        String[] sizes = windowList.split(",");
+        int[] windows = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            try {
+                windows[i] = Integer.parseInt(sizes[i].trim());
+            } catch (NumberFormatException e) {
+                windows[i] = 0;
+            }
+            if (windows[i] <= 0) {
+                throw new IllegalArgumentException(Config.TELEMETRY_HISTORY_WINDOWS
+                        + " must be comma separated positive sample counts: \"" + windowList + "\"");
+            }
+        }
+        return windows;
+    }
+
+    //Single "Info" round trip if firmware supports it, otherwise one command per field
+    private String[] queryInfo() throws CommPortException {
+        if (serialCommunicator.hasFeature("info")) return splitInfo(serialCommunicator.sendCommand("Info"));
+        String[] info = new String[INFO_COMMANDS.length];
+        for (int i = 0; i < INFO_COMMANDS.length; i++) {
+            info[i] = serialCommunicator.sendCommand(INFO_COMMANDS[i]);
+        }
+        return info;
+    }
+
+    static String[] splitInfo(String answer) throws CommPortException {
+        String[] info = answer.split("\\|", -1);
+        if (info.length != INFO_COMMANDS.length) throw new CommPortException("Unexpected Info answer: " + answer);
+        return info;
+    }
+
+    /**Queries the state if the refresh period passed and the firmware does not stream it.
+     * Returns as soon as the query is written, the answer is applied by the listener thread,
+     * so motion commands do not wait for the telemetry round trip.
+     */
     public void refresh() throws CommPortException {
         long timestamp = (new Date()).getTime();
-        if((timestamp - refreshLastTime) > REFRESH_PERIOD){
-            battery.setVoltage(Integer.parseInt(serialCommunicator.sendCommand("Voltage")));
-            temperature = Integer.parseInt(serialCommunicator.sendCommand("Temperature"));
-            freeRAM = Integer.parseInt(serialCommunicator.sendCommand("FreeRAM"));
-            upTime = Integer.parseInt(serialCommunicator.sendCommand("UpTime"));
-            refreshLastTime = timestamp;
+        if (streaming && (timestamp - telemetryLastTime) <= STREAM_LOST_PERIODS * STREAM_PERIOD) return;
+        if (refreshPending || (timestamp - refreshLastTime) <= REFRESH_PERIOD) return;
+        long startNanos = System.nanoTime();
+        CompletableFuture<int[]> state;
+        if (serialCommunicator.hasFeature("state")) {
+            state = serialCommunicator.sendCommandAsync("State").thenApply(ArduinoState::parseState);
+        } else {
+            CompletableFuture<String> voltage = serialCommunicator.sendCommandAsync("Voltage");
+            CompletableFuture<String> temperature = serialCommunicator.sendCommandAsync("Temperature");
+            CompletableFuture<String> freeRAM = serialCommunicator.sendCommandAsync("FreeRAM");
+            CompletableFuture<String> upTime = serialCommunicator.sendCommandAsync("UpTime");
+            state = CompletableFuture.allOf(voltage, temperature, freeRAM, upTime).thenApply(v -> new int[]{
+                    parseValue(voltage.join()), parseValue(temperature.join()), parseValue(freeRAM.join()), parseValue(upTime.join())});
+        }
+        refreshPending = true;
+        refreshLastTime = timestamp;
+        state.whenComplete((values, error) -> {
+            refreshPending = false;
+            if (error != null) {
+                Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+                Logger.getLogger(this.getClass()).warn("State refresh failed: " + cause.getMessage());
+                return;
+            }
+            applyState(values, timestamp);
+            metrics.refreshed(System.nanoTime() - startNanos);
+        });
+    }
+
+    private static int[] parseState(String answer) {
+        String[] fields = answer.split(",");
+        if (fields.length != HISTORY_COUNTERS.length) throw new CompletionException(new CommPortException("Unexpected State answer: " + answer));
+        int[] values = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) values[i] = parseValue(fields[i]);
+        return values;
+    }
+
+    private static int parseValue(String answer) {
+        try {
+            return Integer.parseInt(answer.trim());
+        } catch (NumberFormatException e) {
+            throw new CompletionException(new CommPortException("Numeric answer expected: " + answer));
         }
     }
 
+    /**
+     * @return Voltage, Temperature, FreeRAM and UpTime of every refresh or telemetry line
+     */
+    public TelemetryHistory getHistory() {
+        return history;
+    }
+
     public Battery getBattery() {
         return battery;
     }
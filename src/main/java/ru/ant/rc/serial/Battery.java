@@ -28,8 +28,16 @@ public class Battery {
      */
     public void setVoltage(int voltageValue){
         rawVoltage = voltageValue;
+        calibratedVoltage = calibrate(rawVoltage);
+    }
+
+    /**Converts raw value, e.g. of {@link ArduinoState#getHistory() state history}, to voltage
+     * @param rawVoltage The value measured by firmware
+     * @return Voltage (milli Volts)
+     */
+    public double calibrate(int rawVoltage){
         double coef = Double.valueOf(MAX_VOLTAGE_VALUE - MIN_VOLTAGE_VALUE) / (MAX_VOLTAGE_CALIBRATION - MIN_VOLTAGE_CALIBRATION);
-        calibratedVoltage = coef * (rawVoltage - MIN_VOLTAGE_CALIBRATION) + MIN_VOLTAGE_VALUE;
+        return coef * (rawVoltage - MIN_VOLTAGE_CALIBRATION) + MIN_VOLTAGE_VALUE;
     }
 
     /**Returns voltage level
@@ -8,7 +8,12 @@ package ru.ant.rc.serial;
  * @version 1.0
  */
 public abstract class Command implements Comparable {
+    /**Deadline of the command which never expires, e.g. STOP
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
     final public long timeMillis;
+    final public long deadlineMillis;
 
     /**
      * @param timeMillis Timestamp of command.
@@ -18,7 +23,34 @@ public abstract class Command implements Comparable {
      *                   For example in case of ajax RC.
      */
     public Command(long timeMillis) {
+        this(timeMillis, 0);
+    }
+
+    /**
+     * @param timeMillis Timestamp of command.
+     * @param deadlineMillis Time after which the command is not sent, 0 to use SerialService.CommandTtl
+     */
+    public Command(long timeMillis, long deadlineMillis) {
         this.timeMillis = timeMillis;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @param nowMillis Current time
+     * @param defaultTtl Time to live of the command without deadline, 0 for unlimited
+     * @return True if the command is obsolete and must not be sent, stop commands never expire
+     */
+    public boolean isExpired(long nowMillis, long defaultTtl) {
+        if (isStop()) return false;
+        if (deadlineMillis != 0) return nowMillis > deadlineMillis;
+        return defaultTtl > 0 && nowMillis - timeMillis > defaultTtl;
+    }
+
+    /**
+     * @return True if the command stops the motors, e.g. zero speed setpoint
+     */
+    public boolean isStop() {
+        return false;
     }
 
     /**{@inheritDoc}*/
@@ -0,0 +1,119 @@
+package ru.ant.rc.serial;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**Reusable byte buffer for the outgoing command frames.
+ * Text and numbers are written directly as ASCII, so encoding a command allocates nothing.
+ * Not thread safe: SerialCommunicator guards it by the send lock.
+ * @author Ant
+ * @version 1.0
+ */
+public class CommandEncoder {
+    private final int NEW_LINE_ASCII = 10;
+
+    private final byte[] buffer;
+    private int length = 0;
+
+    /**
+     * @param capacity Maximal frame size
+     */
+    public CommandEncoder(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**Starts a new frame
+     */
+    public CommandEncoder reset() {
+        length = 0;
+        return this;
+    }
+
+    /**Appends ASCII text
+     */
+    public CommandEncoder append(String text) {
+        int count = text.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+        return this;
+    }
+
+    /**Appends single byte
+     */
+    public CommandEncoder append(char character) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) character;
+        return this;
+    }
+
+    /**Appends raw byte of binary frame
+     */
+    public CommandEncoder appendByte(int value) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) value;
+        return this;
+    }
+
+    /**Appends big-endian int16 of binary frame
+     */
+    public CommandEncoder appendShort(int value) {
+        ensureCapacity(2);
+        buffer[length++] = (byte) (value >> 8);
+        buffer[length++] = (byte) value;
+        return this;
+    }
+
+    /**Appends decimal representation of the number
+     */
+    public CommandEncoder append(int value) {
+        if (value == Integer.MIN_VALUE) return append(String.valueOf(value));
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) digits++;
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    /**Terminates the text frame by new line
+     */
+    public CommandEncoder newLine() {
+        return append((char) NEW_LINE_ASCII);
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > buffer.length) {
+            throw new IllegalArgumentException("Command is longer than " + buffer.length + " bytes");
+        }
+    }
+
+    /**Writes the whole frame by single write call
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+        out.flush();
+    }
+
+    /**
+     * @return Frame size
+     */
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) chars[i] = (char) (buffer[i] & 0xFF);
+        return new String(chars);
+    }
+}
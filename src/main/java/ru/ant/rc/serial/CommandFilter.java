@@ -0,0 +1,104 @@
+package ru.ant.rc.serial;
+
+import ru.ant.rc.serial.metrics.SerialMetrics;
+
+/**Checks the commands taken from the Queue by SerialService.
+ * Bypassed commands are not sent to SerialDriver, they are counted per rule by {@link SerialMetrics}.
+ * @author Ant
+ * @version 1.0
+ */
+public class CommandFilter {
+    /**Rule of the commands expired in the Queue. Unlike other rules they do not become the last processed command
+     */
+    public static final int RULE_EXPIRED = 4;
+    private final int MAX_QUEUE_SIZE;
+    private final long COMMAND_TTL;
+    private final SerialMetrics metrics;
+
+    /**
+     * @param maxQueueSize Queue length after which the commands are bypassed
+     */
+    public CommandFilter(int maxQueueSize) {
+        this(maxQueueSize, new SerialMetrics(null));
+    }
+
+    /**
+     * @param maxQueueSize Queue length after which the commands are bypassed
+     * @param metrics Metrics counting the bypassed commands
+     */
+    public CommandFilter(int maxQueueSize, SerialMetrics metrics) {
+        this(maxQueueSize, 0, metrics);
+    }
+
+    /**
+     * @param maxQueueSize Queue length after which the commands are bypassed
+     * @param commandTtl Time to live of the commands without deadline, 0 for unlimited
+     * @param metrics Metrics counting the bypassed commands
+     */
+    public CommandFilter(int maxQueueSize, long commandTtl, SerialMetrics metrics) {
+        this.MAX_QUEUE_SIZE = maxQueueSize;
+        this.COMMAND_TTL = commandTtl;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param command Command taken from the Queue
+     * @param lastCommand Last processed command
+     * @param queueSize Queue length after the command was taken
+     * @return True if command must not be sent
+     */
+    public boolean isBypassed(Command command, Command lastCommand, int queueSize) {
+        return bypassRule(command, lastCommand, queueSize) != 0;
+    }
+
+    /**
+     * @param command Command taken from the Queue
+     * @param lastCommand Last processed command
+     * @param queueSize Queue length after the command was taken
+     * @return Number of the first rule bypassing the command or 0 if command must be sent
+     */
+    public int bypassRule(Command command, Command lastCommand, int queueSize) {
+        int rule = 0;
+        if (CheckBypass1(command, lastCommand)) rule = 1;
+        else if (CheckBypass2(command, lastCommand)) rule = 2;
+        else if (CheckBypass3(queueSize)) rule = 3;
+        else if (CheckBypass4(command)) rule = RULE_EXPIRED;
+        if (rule != 0) metrics.commandBypassed(rule);
+        return rule;
+    }
+
+    //Bypass the entries older then last sent
+    boolean CheckBypass1(Command command, Command lastCommand){
+        boolean result = false;
+        if (command.timeMillis < lastCommand.timeMillis){
+            //log.info("Bypass1 value for " + command.timeMillis + " < " + lastCommand.timeMillis);
+            result = true;
+        }
+        return result;
+    }
+
+    //Bypass the same command
+    boolean CheckBypass2(Command command, Command lastCommand){
+        boolean result = false;
+        if (command.equals(lastCommand)){
+            //log.info("Bypass2 value already sent");
+            result = true;
+        }
+        return result;
+    }
+
+    //Bypass entries if queue is too long
+    boolean CheckBypass3(int queueSize){
+        boolean result = false;
+        if (queueSize > MAX_QUEUE_SIZE){
+            //log.info("Bypass3 value for " + queueSize + ">" + MAX_QUEUE_SIZE);
+            result = true;
+        }
+        return result;
+    }
+
+    //Bypass entries expired while waiting in the queue
+    boolean CheckBypass4(Command command){
+        return command.isExpired(System.currentTimeMillis(), COMMAND_TTL);
+    }
+}
@@ -1,5 +1,8 @@
 package ru.ant.rc.serial;
 
+import ru.ant.rc.serial.metrics.SerialMetrics;
+import ru.ant.rc.serial.recorder.FlightRecorder;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.PriorityBlockingQueue;
@@ -10,6 +13,9 @@ import java.util.concurrent.TimeUnit;
  */
 public class CommandQueue extends PriorityBlockingQueue<Command> {
     List<Listener> dataListeners = new ArrayList<>();
+    volatile FlightRecorder recorder;
+    volatile long commandTtl = 0;
+    volatile SerialMetrics metrics;
 
     @Override
     public Command poll(long timeout, TimeUnit unit) throws InterruptedException {
@@ -18,14 +24,43 @@ public class CommandQueue extends PriorityBlockingQueue<Command> {
 
     @Override
     public void put(Command command) {
+        FlightRecorder recorder = this.recorder;
+        if (recorder != null) recorder.commandEnqueued(command);
+        if (dropExpired(command)) return;
         super.put(command);
         notifyListeners();
     }
 
-    private void notifyListeners() {
+    //Expired command is not put at all, SerialService drops the ones expired in the queue
+    boolean dropExpired(Command command) {
+        if (!command.isExpired(System.currentTimeMillis(), commandTtl)) return false;
+        SerialMetrics metrics = this.metrics;
+        if (metrics != null) metrics.commandExpired();
+        FlightRecorder recorder = this.recorder;
+        if (recorder != null) recorder.commandBypassed(command, CommandFilter.RULE_EXPIRED);
+        return true;
+    }
+
+    void notifyListeners() {
         dataListeners.forEach(listener -> listener.queueDataAvailable());
     }
 
+    /**
+     * @param recorder Recorder of the put commands or null
+     */
+    public void setRecorder(FlightRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @param commandTtl Time to live of the put commands without deadline, 0 for unlimited
+     * @param metrics Metrics counting the expired commands or null
+     */
+    public void setCommandTtl(long commandTtl, SerialMetrics metrics) {
+        this.commandTtl = commandTtl;
+        this.metrics = metrics;
+    }
+
     public void addDataListener(Listener listener){
         dataListeners.add(listener);
     }
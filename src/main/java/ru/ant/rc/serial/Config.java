@@ -16,19 +16,69 @@ public class Config {
     public static final String FILE_NAME = "serial-driver.properties";
 
     public static final String COMM_PORT_NAME = "CommPortName";
+    public static final String DETECTOR_PROBE_THREADS = "SerialHardwareDetector.ProbeThreads";
+    public static final String FINGERPRINT_FEATURES = "SerialHardwareDetector.Fingerprint.Features";
+    public static final String FINGERPRINT_INFO = "SerialHardwareDetector.Fingerprint.Info";
     public static final String BATTERY_MIN_VOLTAGE = "Battery.MinVoltage";
     public static final String BATTERY_MAX_VOLTAGE = "Battery.MaxVoltage";
     public static final String BATTERY_MIN_VOLTAGE_CALIBRATION = "Battery.MinVoltage.calibration";
     public static final String BATTERY_MAX_VOLTAGE_CALIBRATION = "Battery.MaxVoltage.calibration";
     public static final String SERIAL_LISTENER_TIMEOUT = "SerialCommunicator.PortListenerTimeout";
     public static final String COMM_PORT_INTERNAL_TIMEOUT = "SerialConnection.PortInternalTimeout";
+    public static final String SERIAL_BAUD_RATE = "SerialConnection.BaudRate";
+    public static final String SERIAL_NEGOTIATED_BAUD_RATE = "SerialConnection.NegotiatedBaudRate";
     public static final String STATE_REFRESH_PERIOD = "SerialDriver.HardwareStateRefreshPeriod";
+    public static final String STATE_STREAM_PERIOD = "SerialDriver.HardwareStateStreamPeriod";
+    public static final String TELEMETRY_HISTORY_BLOCKS = "TelemetryHistory.Blocks";
+    public static final String TELEMETRY_HISTORY_WINDOWS = "TelemetryHistory.Windows";
     public static final String SERVICE_MAX_QUEUE_SIZE = "SerialService.MaxQueueSize";
     public static final String SERVICE_POLL_WAIT_TIMEOUT = "SerialService.PollWaitTimeout";
     public static final String SERVICE_RECONNECT_TIMEOUT = "SerialService.ReconnectTimeout";
+    public static final String SERVICE_RECONNECT_MIN_TIMEOUT = "SerialService.ReconnectMinTimeout";
     public static final String SLEEP_TIMEOUT = "SerialService.SleepTimeout";
+    public static final String SERVICE_QUEUE_MODE = "SerialService.QueueMode";
+    public static final String SERVICE_CONTROL_RATE = "SerialService.ControlRate";
+    public static final String SERVICE_ASYNC_ACKS = "SerialService.AsyncAcks";
+    public static final String SERVICE_COMMAND_TTL = "SerialService.CommandTtl";
+    public static final String SERIAL_PIPELINE_WINDOW = "SerialCommunicator.PipelineWindow";
+    public static final String ARDUINO2WD_BINARY_PROTOCOL = "Arduino2WD.BinaryProtocol";
+    public static final String ARDUINO2WD_MIXER = "Arduino2WD.Mixer";
+    public static final String METRICS_JMX = "SerialMetrics.Jmx";
+    public static final String METRICS_HTTP_HOST = "SerialMetrics.HttpHost";
+    public static final String METRICS_HTTP_PORT = "SerialMetrics.HttpPort";
+    public static final String FLIGHT_RECORDER_ENABLED = "FlightRecorder.Enabled";
+    public static final String FLIGHT_RECORDER_DIRECTORY = "FlightRecorder.Directory";
+    public static final String FLIGHT_RECORDER_RECORDS = "FlightRecorder.Records";
+
+    private final String robotName;
+
+    /**Options shared by all robots
+     */
+    public Config() {
+        this(null);
+    }
+
+    /**Options of the robot driven by the fleet.
+     * Option "&lt;robotName&gt;.&lt;key&gt;" overrides the shared one, e.g. "robot1.CommPortName=COM4".
+     * @param robotName Robot name or null for shared options
+     */
+    public Config(String robotName) {
+        this.robotName = robotName;
+    }
+
+    /**
+     * @return Robot name or null if options are shared
+     */
+    public String getRobotName() {
+        return robotName;
+    }
+
+    private String robotKey(String key) {
+        return robotName + "." + key;
+    }
 
     public void setOption(String key, String val, String comments){
+        if (robotName != null) key = robotKey(key);
         String old = App.getProperty(key);
         App.setProperty(FILE_NAME, key, val);
         log.info("Config changed \"" + key + "\". Old=" + old + "; New=" + val);
@@ -36,9 +86,20 @@ public class Config {
     }
 
     public String getOption(String key){
+        if (robotName != null) {
+            String value = App.getProperty(robotKey(key));
+            if (value != null) return value;
+        }
         return App.getProperty(key);
     }
 
+    /**Returns option value or the default one if option is absent in configuration file
+     */
+    public String getOption(String key, String defaultValue){
+        String value = getOption(key);
+        return (value == null) ? defaultValue : value;
+    }
+
     private void saveConfig(String comments){
         log.info("Saving configuration to file..");
         try {
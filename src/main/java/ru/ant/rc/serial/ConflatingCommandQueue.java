@@ -0,0 +1,108 @@
+package ru.ant.rc.serial;
+
+import ru.ant.rc.serial.recorder.FlightRecorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**CommandQueue holding the newest command only.
+ * Put replaces the pending command unless it is newer than the put one, so producer bursts
+ * need no memory and there is no backlog to drain. Puts are lock-free.
+ * Designed for single consumer (SerialService). Only put/offer/add, poll, take, peek, size, isEmpty
+ * and clear are conflating, other PriorityBlockingQueue methods see an empty queue.
+ * @author Ant
+ * @version 1.0
+ */
+public class ConflatingCommandQueue extends CommandQueue {
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicReference<Command> pending = new AtomicReference<>();
+    private volatile Thread waiter;
+
+    @Override
+    public void put(Command command) {
+        offer(command);
+    }
+
+    @Override
+    public boolean add(Command command) {
+        return offer(command);
+    }
+
+    /**Replaces the pending command
+     * @return False if pending command is newer, the put one is dropped then
+     */
+    @Override
+    public boolean offer(Command command) {
+        if (command == null) throw new NullPointerException();
+        FlightRecorder recorder = this.recorder;
+        if (recorder != null) recorder.commandEnqueued(command);
+        if (dropExpired(command)) return false;
+        Command current;
+        do {
+            current = pending.get();
+            if (current != null && command.timeMillis < current.timeMillis) return false;
+        } while (!pending.compareAndSet(current, command));
+        LockSupport.unpark(waiter);
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    public boolean offer(Command command, long timeout, TimeUnit unit) {
+        return offer(command);
+    }
+
+    @Override
+    public Command poll() {
+        return pending.getAndSet(null);
+    }
+
+    @Override
+    public Command poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Command command = pending.getAndSet(null);
+        if (command != null) return command;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        //Waiter is published before the check, so the command put after the check unparks it
+        waiter = Thread.currentThread();
+        try {
+            while ((command = pending.getAndSet(null)) == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return null;
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+            return command;
+        } finally {
+            waiter = null;
+        }
+    }
+
+    @Override
+    public Command take() throws InterruptedException {
+        Command command;
+        while ((command = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) == null);
+        return command;
+    }
+
+    @Override
+    public Command peek() {
+        return pending.get();
+    }
+
+    @Override
+    public int size() {
+        return (pending.get() == null) ? 0 : 1;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return pending.get() == null;
+    }
+
+    @Override
+    public void clear() {
+        pending.set(null);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.ant.rc.serial;
+
+import ru.ant.rc.serial.exception.CommPortException;
+
+/**Persisted identity of the robot: firmware features and "Info" answer
+ * (firmware version, hardware type and static build info). Port is persisted as CommPortName.
+ * Matching "Info" answer on the saved port lets SerialHardwareDetector skip the handshake.
+ * @author Ant
+ * @version 1.0
+ */
+public class HardwareFingerprint {
+    private final String features;
+    private final String info;
+
+    /**
+     * @param features Comma separated firmware features
+     * @param info Firmware "Info" answer
+     */
+    public HardwareFingerprint(String features, String info) {
+        this.features = features;
+        this.info = info;
+    }
+
+    /**
+     * @return Saved fingerprint or null if there is no one
+     */
+    public static HardwareFingerprint load(Config config) {
+        String features = config.getOption(Config.FINGERPRINT_FEATURES);
+        String info = config.getOption(Config.FINGERPRINT_INFO);
+        if (features == null || info == null) return null;
+        return new HardwareFingerprint(features, info);
+    }
+
+    /**Saves changed options only
+     */
+    public void save(Config config) {
+        if (!features.equals(config.getOption(Config.FINGERPRINT_FEATURES)))
+            config.setOption(Config.FINGERPRINT_FEATURES, features, "Automatically detected hardware fingerprint");
+        if (!info.equals(config.getOption(Config.FINGERPRINT_INFO)))
+            config.setOption(Config.FINGERPRINT_INFO, info, "Automatically detected hardware fingerprint");
+    }
+
+    /**
+     * @param infoAnswer "Info" answer of connected firmware
+     * @return True if it is the same robot
+     */
+    public boolean matches(String infoAnswer) {
+        return info.equals(infoAnswer);
+    }
+
+    public String getFeatures() {
+        return features;
+    }
+
+    public String getInfo() {
+        return info;
+    }
+
+    /**
+     * @return Hardware type field of "Info" answer
+     */
+    public String getHardware() throws CommPortException {
+        return ArduinoState.splitInfo(info)[ArduinoState.INFO_HARDWARE];
+    }
+}
@@ -0,0 +1,183 @@
+package ru.ant.rc.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**Reusable ring buffer splitting received bytes into lines.
+ * Bytes are read from the stream in bulk, lines are parsed in place without intermediate Strings.
+ * Line longer than the buffer is delivered truncated, the rest of it is skipped up to the end of line.
+ * Binary acknowledge frame "&lt;0xA5&gt;&lt;opcode&gt;&lt;sequence&gt;&lt;status&gt;" is delivered as a line of 4 bytes
+ * marked by {@link #isFrame()}. Its start byte never appears in ASCII text.
+ * Not thread safe: it is used by the serial listener thread only.
+ * @author Ant
+ * @version 1.0
+ */
+public class LineBuffer {
+    public static final int FRAME_START = 0xA5;
+    public static final int FRAME_ACK_LENGTH = 4;
+    public static final byte FRAME_STATUS_OK = 0;
+    private final int NEW_LINE_ASCII = 10;
+
+    private final byte[] data;
+    private final int mask;
+    private long head = 0;
+    private long tail = 0;
+    private long scan = 0;
+    private boolean skipping = false;
+
+    private long lineStart = 0;
+    private int lineLength = 0;
+    private boolean truncated = false;
+    private boolean frame = false;
+
+    /**
+     * @param capacity Buffer size, rounded up to the power of two
+     */
+    public LineBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.data = new byte[size];
+        this.mask = size - 1;
+    }
+
+    /**Reads available bytes from the stream into the free space of the buffer.
+     * Never blocks for more data than the stream reports as available.
+     * @return Count of bytes read, -1 on end of stream
+     */
+    public int readFrom(InputStream in) throws IOException {
+        int free = data.length - (int) (tail - head);
+        if (free == 0) return 0;
+        int offset = index(tail);
+        int length = Math.min(free, data.length - offset);
+        length = Math.min(length, Math.max(1, in.available()));
+        int count = in.read(data, offset, length);
+        if (count > 0) tail += count;
+        return count;
+    }
+
+    /**Finds the next complete line. Empty lines are skipped.
+     * The line stays available through accessors until the next call.
+     * @return True if the line is found
+     */
+    public boolean nextLine() {
+        while (scan < tail) {
+            if (scan == head && !skipping && (data[index(head)] & 0xFF) == FRAME_START) {
+                if (tail - head < FRAME_ACK_LENGTH) return false;
+                setLine(head, FRAME_ACK_LENGTH, false);
+                frame = true;
+                head += FRAME_ACK_LENGTH;
+                scan = head;
+                return true;
+            }
+            byte byteOfData = data[index(scan++)];
+            if (byteOfData == NEW_LINE_ASCII) {
+                long start = head;
+                head = scan;
+                if (skipping) {
+                    skipping = false;
+                    continue;
+                }
+                if (scan - 1 > start) {
+                    setLine(start, (int) (scan - 1 - start), false);
+                    return true;
+                }
+            } else if (skipping) {
+                head = scan;
+            }
+        }
+        if (!skipping && tail - head == data.length) {
+            setLine(head, data.length, true);
+            head = tail;
+            skipping = true;
+            return true;
+        }
+        return false;
+    }
+
+    private void setLine(long start, int length, boolean truncated) {
+        this.lineStart = start;
+        this.lineLength = length;
+        this.truncated = truncated;
+        this.frame = false;
+    }
+
+    private int index(long position) {
+        return (int) (position & mask);
+    }
+
+    /**
+     * @return Length of the current line
+     */
+    public int length() {
+        return lineLength;
+    }
+
+    /**
+     * @return True if the current line was longer than the buffer
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return True if the current line is binary acknowledge frame
+     */
+    public boolean isFrame() {
+        return frame;
+    }
+
+    /**
+     * @param position Position within the current line
+     * @return Byte of the current line
+     */
+    public byte byteAt(int position) {
+        return data[index(lineStart + position)];
+    }
+
+    /**Parses integer numbers of the current line into target array.
+     * Numbers may be separated by any non-digit characters.
+     * @param from Position within the current line to start from
+     * @param target Array to fill
+     * @return Count of parsed numbers
+     */
+    public int parseInts(int from, int[] target) {
+        int count = 0;
+        int position = from;
+        while (position < lineLength && count < target.length) {
+            byte byteOfData = byteAt(position);
+            boolean negative = byteOfData == '-' && position + 1 < lineLength && isDigit(byteAt(position + 1));
+            if (!negative && !isDigit(byteOfData)) {
+                position++;
+                continue;
+            }
+            if (negative) position++;
+            int value = 0;
+            while (position < lineLength && isDigit(byteOfData = byteAt(position))) {
+                value = value * 10 + (byteOfData - '0');
+                position++;
+            }
+            target[count++] = negative ? -value : value;
+        }
+        return count;
+    }
+
+    private boolean isDigit(byte byteOfData) {
+        return byteOfData >= '0' && byteOfData <= '9';
+    }
+
+    /**
+     * @param from Position within the current line to start from
+     * @return Rest of the current line as text
+     */
+    public String toString(int from) {
+        char[] chars = new char[Math.max(0, lineLength - from)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (byteAt(from + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return toString(0);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.ant.rc.serial;
+
+/**Minimum, maximum and mean of the last N values in O(1) per value and per query.
+ * Values are kept in a primitive ring, minimum and maximum candidates in monotonic deques of sequence numbers.
+ * Not thread safe: TelemetryHistory guards it.
+ * @author Ant
+ * @version 1.0
+ */
+class RollingWindow {
+    private final int size;
+    private final int[] values;
+    private final long[] minQueue;
+    private final long[] maxQueue;
+    private int minHead = 0, minTail = 0;
+    private int maxHead = 0, maxTail = 0;
+    private long next = 0;
+    private long sum = 0;
+    private int count = 0;
+
+    /**
+     * @param size Count of the last values covered by the window
+     */
+    RollingWindow(int size) {
+        this.size = size;
+        this.values = new int[size];
+        //One spare slot tells the full deque from the empty one
+        this.minQueue = new long[size + 1];
+        this.maxQueue = new long[size + 1];
+    }
+
+    void add(int value) {
+        if (count == size) {
+            long evicted = next - size;
+            sum -= values[index(evicted)];
+            count--;
+            if (minHead != minTail && minQueue[minHead] == evicted) minHead = advance(minHead);
+            if (maxHead != maxTail && maxQueue[maxHead] == evicted) maxHead = advance(maxHead);
+        }
+        values[index(next)] = value;
+        sum += value;
+        count++;
+        while (minHead != minTail && values[index(minQueue[retreat(minTail)])] >= value) minTail = retreat(minTail);
+        minQueue[minTail] = next;
+        minTail = advance(minTail);
+        while (maxHead != maxTail && values[index(maxQueue[retreat(maxTail)])] <= value) maxTail = retreat(maxTail);
+        maxQueue[maxTail] = next;
+        maxTail = advance(maxTail);
+        next++;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % size);
+    }
+
+    private int advance(int position) {
+        return (position == size) ? 0 : position + 1;
+    }
+
+    private int retreat(int position) {
+        return (position == 0) ? size : position - 1;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getMin() {
+        return (count == 0) ? 0 : values[index(minQueue[minHead])];
+    }
+
+    int getMax() {
+        return (count == 0) ? 0 : values[index(maxQueue[maxHead])];
+    }
+
+    double getMean() {
+        return (count == 0) ? Double.NaN : (double) sum / count;
+    }
+}
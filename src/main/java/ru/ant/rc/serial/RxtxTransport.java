@@ -0,0 +1,102 @@
+package ru.ant.rc.serial;
+
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.UnsupportedCommOperationException;
+import org.apache.log4j.Logger;
+import ru.ant.rc.serial.exception.CommPortException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.TooManyListenersException;
+
+/**Transport over RXTX serial port.
+ * @author Ant
+ * @version 1.0
+ */
+public class RxtxTransport implements Transport {
+    private final SerialPort serialPort;
+    private final String portName;
+    private final InputStream in;
+    private final OutputStream out;
+
+    private final Logger logger;
+
+    /**
+     * @param serialPort Opened and configured serial port
+     * @param portName Port name
+     */
+    public RxtxTransport(SerialPort serialPort, String portName) throws IOException {
+        this.serialPort = serialPort;
+        this.portName = portName;
+        this.in = serialPort.getInputStream();
+        this.out = serialPort.getOutputStream();
+        logger = Logger.getLogger(this.getClass());
+    }
+
+    /**Getter
+     * @return SerialPort object
+     */
+    public SerialPort getSerialPort() {
+        return serialPort;
+    }
+
+    @Override
+    public String getName() {
+        return portName;
+    }
+
+    @Override
+    public InputStream getIn() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOut() {
+        return out;
+    }
+
+    @Override
+    public void setDataListener(Runnable dataListener) throws TooManyListenersException {
+        serialPort.removeEventListener();
+        serialPort.addEventListener(serialPortEvent -> {
+            if (serialPortEvent.getEventType() == SerialPortEvent.DATA_AVAILABLE) {
+                dataListener.run();
+            }else{
+                logger.info("Serial event: " + serialPortEvent.getEventType());
+            }
+        });
+        serialPort.notifyOnDataAvailable(true);
+    }
+
+    @Override
+    public void removeDataListener() {
+        serialPort.removeEventListener();
+    }
+
+    @Override
+    public void setBaudRate(int baudRate) throws CommPortException {
+        try {
+            serialPort.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+        } catch (UnsupportedCommOperationException e) {
+            throw new CommPortException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        serialPort.removeEventListener();
+        serialPort.close();
+        try {
+            this.in.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+}
@@ -1,30 +1,72 @@
 package ru.ant.rc.serial;
 
-import gnu.io.SerialPort;
-import gnu.io.SerialPortEvent;
-import gnu.io.SerialPortEventListener;
 import org.apache.log4j.Logger;
 import ru.ant.rc.serial.exception.CommPortException;
+import ru.ant.rc.serial.metrics.SerialMetrics;
+import ru.ant.rc.serial.recorder.FlightRecorder;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.Date;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.TooManyListenersException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
-/**This class is SerialPort listener.
+/**This class is Transport data listener.
+ * Commands may be pipelined: up to SerialCommunicator.PipelineWindow commands are sent
+ * without waiting for the answers if firmware supports sequence tags.
+ * Tagged command looks like "#&lt;sequence&gt; &lt;command&gt;" and firmware echoes the tag in the answer.
+ * Lines starting with '!' are pushed by firmware without request and go to the {@link TelemetryListener}.
  * @author Ant
  * @version 1.0
  */
-public class SerialCommunicator implements SerialPortEventListener{
+public class SerialCommunicator {
+    private static final ScheduledExecutorService TIMEOUT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SerialCommunicator-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final int NEW_LINE_ASCII = 10;
+    private final int TAG_PREFIX_ASCII = '#';
+    private final int TELEMETRY_PREFIX_ASCII = '!';
+    private final int SEQUENCE_MASK = 0xFF;
+    private static final int NO_OPCODE = -1;
+    private static final String FRAME_DESCRIPTION = "frame";
+    private static final String FRAME_ACKNOWLEDGED = "OK";
     private final int LISTENER_TIMEOUT;
+    private final int PIPELINE_WINDOW;
 
-    private boolean isReadComplete = false;
-    private byte[] receivedData = new byte[200];
-    private int receivedCount = 0;
+    private final LineBuffer lineBuffer = new LineBuffer(256);
+    private final CommandEncoder encoder = new CommandEncoder(256);
+    private final CommandEncoder urgentEncoder = new CommandEncoder(256);
+    private final int[] telemetryValues = new int[8];
+    private volatile TelemetryListener telemetryListener;
     private final SerialConnection serialConnection;
 
+    private final ReentrantLock sendLock = new ReentrantLock();
+    //Guards the registration and the write of a single command, so the urgent command waits only for the write
+    //in progress and in-flight requests stay in the order of the wire
+    private final Object writeLock = new Object();
+    private final Semaphore window = new Semaphore(1);
+    private final ArrayDeque<Request> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<Request> freeRequests = new ArrayDeque<>();
+    private long nextTicket = 0;
+    private volatile boolean tagged = false;
+    private volatile Set<String> features = Collections.emptySet();
+    private final SerialMetrics metrics;
+    private final FlightRecorder recorder;
+
     private final Logger logger;
 
     /**Not useful from applications.
@@ -35,34 +77,73 @@ public class SerialCommunicator implements SerialPortEventListener{
         this.serialConnection = serialConnection;
         logger = Logger.getLogger(this.getClass());
         LISTENER_TIMEOUT = Integer.parseInt(config.getOption(Config.SERIAL_LISTENER_TIMEOUT));
+        PIPELINE_WINDOW = Math.max(1, Integer.parseInt(config.getOption(Config.SERIAL_PIPELINE_WINDOW, "1")));
+        metrics = SerialMetrics.forRobot(config);
+        recorder = FlightRecorder.forRobot(config);
+        for (int i = 0; i < PIPELINE_WINDOW; i++) freeRequests.push(new Request());
     }
 
-    /**Runs SerialPort event listener.
-     * If event appears, it notifies the {@link #serialEvent(gnu.io.SerialPortEvent) serialEvent} method.
+    /**Runs Transport data listener.
+     * If data appear, the transport notifies the {@link #readLineFromInput() readLineFromInput} method.
      */
     public void initListener() throws TooManyListenersException {
-        SerialPort serialPort = serialConnection.getSerialPort();
-        serialPort.removeEventListener();
-        serialPort.addEventListener(this);
-        serialPort.notifyOnDataAvailable(true);
-        try {
-            Thread.sleep(LISTENER_TIMEOUT);
-        } catch (InterruptedException e) {
-            logger.error(e.getMessage(), e);
+        serialConnection.getTransport().setDataListener(this::readLineFromInput);
+    }
+
+    /**Queries the list of optional protocol features of the firmware.
+     * Old firmware answers with default "command complete" text, that means no features.
+     * Enables pipelining if firmware supports sequence tags.
+     */
+    public void detectFeatures() throws CommPortException {
+        String answer = sendCommand("Features");
+        setFeatures(answer.endsWith("command complete") ? "" : answer);
+    }
+
+    /**Applies known feature list without querying firmware, e.g. from {@link HardwareFingerprint}
+     * @param featureList Comma separated features as answered by "Features" command
+     */
+    public void setFeatures(String featureList) {
+        if (featureList.isEmpty()) {
+            features = Collections.emptySet();
+        } else {
+            features = new HashSet<>(Arrays.asList(featureList.split(",")));
         }
+        logger.info("Firmware features: " + features);
+        if (!tagged && PIPELINE_WINDOW > 1 && hasFeature("tag")) {
+            tagged = true;
+            window.release(PIPELINE_WINDOW - 1);
+            logger.info("Pipelining enabled with window of " + PIPELINE_WINDOW + " commands");
+        }
+    }
+
+    /**
+     * @return Comma separated features of the firmware
+     */
+    public String getFeatures() {
+        return String.join(",", features);
     }
 
+    /**
+     * @param feature Feature name as reported by firmware "Features" command
+     * @return True if firmware supports the feature
+     */
+    public boolean hasFeature(String feature) {
+        return features.contains(feature);
+    }
+
+    /**Reads all available bytes in bulk and hands every completed line to the waiting sender.
+     * Line longer than the receive buffer is delivered truncated.
+     * Invokes outside the application by the Transport. It require the listener is up.
+     * @see #initListener()
+     */
     private void readLineFromInput(){
         InputStream in = serialConnection.getIn();
-        if (isReadComplete) return;
-        byte byteOfData;
         try {
-            while((byteOfData = (byte)in.read()) > -1){
-                if (byteOfData == NEW_LINE_ASCII) {
-                    isReadComplete = (receivedCount > 0);
-                    break;
-                } else {
-                    receivedData[receivedCount++] = byteOfData;
+            while(in.available() > 0){
+                if (lineBuffer.readFrom(in) < 0) break;
+                while (lineBuffer.nextLine()) {
+                    if (lineBuffer.isTruncated()) logger.warn("Answer is too long, truncated: " + lineBuffer);
+                    dispatchAnswer(lineBuffer);
                 }
             }
         } catch (IOException e) {
@@ -70,63 +151,531 @@ public class SerialCommunicator implements SerialPortEventListener{
         }
     }
 
-    /**
-     * Invokes outside the application by SerialPort event.
-     * It require the listener is up.
-     * @see #initListener()
+    /**Sets the receiver of firmware pushed telemetry lines
+     * @param telemetryListener Listener or null to drop the telemetry
      */
-    public void serialEvent(SerialPortEvent serialPortEvent) {
-        if (serialPortEvent.getEventType() == SerialPortEvent.DATA_AVAILABLE) {
-            readLineFromInput();
-        }else{
-            logger.info("Serial event: " + serialPortEvent.getEventType());
+    public void setTelemetryListener(TelemetryListener telemetryListener) {
+        this.telemetryListener = telemetryListener;
+    }
+
+    //Telemetry line is "!&lt;kind&gt; &lt;value&gt;,&lt;value&gt;.." and never matches in-flight requests
+    private void dispatchTelemetry(LineBuffer line) {
+        TelemetryListener listener = telemetryListener;
+        if (listener == null) {
+            if (logger.isDebugEnabled()) logger.debug("Telemetry dropped: " + line);
+            return;
         }
+        listener.telemetryReceived(telemetryValues, line.parseInts(1, telemetryValues));
     }
 
-    private String checkMessage() {
-        String message = null;
-        if (isReadComplete) {
-            message = new String(receivedData, 0, receivedCount);
-            receivedData = new byte[200];
-            receivedCount = 0;
-            isReadComplete = false;
-        }else{
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage(), e);
+    /**Matches the answer line with the in-flight request.
+     * Untagged answer belongs to the oldest request.
+     * Tagged answer belongs to the request with the same sequence, older requests are considered lost.
+     */
+    private void dispatchAnswer(LineBuffer line) {
+        if (!line.isFrame() && line.byteAt(0) == TELEMETRY_PREFIX_ASCII) {
+            dispatchTelemetry(line);
+            return;
+        }
+        int sequence = -1;
+        int offset = 0;
+        if (line.isFrame()) {
+            sequence = line.byteAt(2) & SEQUENCE_MASK;
+        } else if (tagged && line.byteAt(0) == TAG_PREFIX_ASCII) {
+            sequence = 0;
+            offset = 1;
+            byte byteOfData;
+            while (offset < line.length() && (byteOfData = line.byteAt(offset)) >= '0' && byteOfData <= '9') {
+                sequence = sequence * 10 + (byteOfData - '0');
+                offset++;
             }
+            if (offset < line.length() && line.byteAt(offset) == ' ') offset++;
+        }
+
+        Request request = null;
+        long ticket = 0;
+        List<Request> lost = null;
+        List<Long> lostTickets = null;
+        synchronized (inFlight) {
+            if (sequence < 0) {
+                request = inFlight.pollFirst();
+            } else if (containsSequence(sequence)) {
+                while ((request = inFlight.pollFirst()) != null && request.sequence() != sequence) {
+                    if (lost == null) {
+                        lost = new ArrayList<>();
+                        lostTickets = new ArrayList<>();
+                    }
+                    lost.add(request);
+                    lostTickets.add(request.ticket);
+                }
+            }
+            if (request != null) ticket = request.ticket;
+        }
+        if (lost != null) {
+            for (int i = 0; i < lost.size(); i++) {
+                Request lostRequest = lost.get(i);
+                metrics.answerLost();
+                finish(lostRequest, lostTickets.get(i), null, 0, "Answer lost for command: " + lostRequest.describe());
+            }
+        }
+        if (request == null) {
+            logger.warn("Unexpected answer dropped: " + (line.isFrame() ? "frame " + sequence : line.toString(offset)));
+            return;
+        }
+        finish(request, ticket, line, offset, null);
+    }
+
+    private boolean containsSequence(int sequence) {
+        for (Request request : inFlight) {
+            if (request.sequence() == sequence) return true;
+        }
+        return false;
+    }
+
+    /**Encodes the command into reusable buffer.
+     * Binary frame is "&lt;0xA5&gt;&lt;opcode&gt;&lt;sequence&gt;[&lt;first int16&gt;&lt;second int16&gt;]",
+     * text one is "[#&lt;sequence&gt; ]&lt;command&gt;[&lt;first&gt;,&lt;second&gt;]\n".
+     * Must be called under the write lock.
+     */
+    private void encode(Request request, CommandEncoder encoder) {
+        encoder.reset();
+        if (request.opcode != NO_OPCODE) {
+            encoder.appendByte(LineBuffer.FRAME_START).appendByte(request.opcode).appendByte(request.sequence());
+            if (request.hasArguments) encoder.appendShort(request.firstArgument).appendShort(request.secondArgument);
+        } else {
+            if (tagged) encoder.append((char) TAG_PREFIX_ASCII).append(request.sequence()).append(' ');
+            encoder.append(request.command);
+            if (request.hasArguments) encoder.append(request.firstArgument).append(',').append(request.secondArgument);
+            encoder.newLine();
         }
-        return message;
     }
 
-    private void sendMessage(String message){
-        OutputStream out = serialConnection.getOut();
+    //Writes the encoded command by single write call
+    private void sendMessage(CommandEncoder encoder) {
         try {
-            out.write((message + "\n").getBytes());
+            encoder.writeTo(serialConnection.getOut());
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
     }
 
+    /**Takes a free pipeline slot. Blocks while the pipeline window is full.
+     */
+    private Request acquire() throws CommPortException {
+        try {
+            if (!window.tryAcquire(LISTENER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new CommPortException("Pipeline window is full");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommPortException("Interrupted while waiting for pipeline window");
+        }
+        Request request;
+        synchronized (inFlight) {
+            request = freeRequests.pop();
+        }
+        request.clear();
+        return request;
+    }
+
+    /**Registers the request as in-flight and sends the command.
+     * Asynchronous request gets its timeout scheduled before it is sent.
+     */
+    private Request submit(Request request, CompletableFuture<String> future) throws CommPortException {
+        //Senders queue on the send lock, so the urgent command competes for the write lock with one sender at most
+        sendLock.lock();
+        try {
+            request.sentNanos = System.nanoTime();
+            write(request, future, encoder);
+        } finally {
+            sendLock.unlock();
+        }
+        return request;
+    }
+
+    /**Encodes the request before it is registered, so the command which can not be encoded
+     * leaves no in-flight request behind and gives its pipeline slot back.
+     */
+    private void write(Request request, CompletableFuture<String> future, CommandEncoder encoder) throws CommPortException {
+        synchronized (writeLock) {
+            long ticket;
+            synchronized (inFlight) {
+                ticket = nextTicket++;
+                request.start(ticket, future);
+            }
+            try {
+                encode(request, encoder);
+            } catch (IllegalArgumentException e) {
+                release(request);
+                throw new CommPortException(e.getMessage() + ": " + request.describe());
+            }
+            synchronized (inFlight) {
+                inFlight.addLast(request);
+            }
+            if (future != null) {
+                TIMEOUT_SCHEDULER.schedule(() -> expire(request, ticket), LISTENER_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            if (logger.isDebugEnabled()) logger.debug("HW command: " + request.describe());
+            this.sendMessage(encoder);
+            metrics.commandSent();
+            recorder.commandSent(request.opcode, request.command, request.firstArgument, request.secondArgument, request.sequence());
+        }
+    }
+
+    //Round trip of the urgent request includes the wait for the write in progress
+    private CompletableFuture<String> submitUrgent(Request request) throws CommPortException {
+        if (!serialConnection.isConnectionOpened()) throw new CommPortException("Port is not opened");
+        CompletableFuture<String> future = new CompletableFuture<>();
+        request.urgent = true;
+        request.sentNanos = System.nanoTime();
+        write(request, future, urgentEncoder);
+        return future;
+    }
+
+    private Request textRequest(String command) throws CommPortException {
+        Request request = acquire();
+        request.command = command;
+        return request;
+    }
+
+    private Request textRequest(String command, int firstArgument, int secondArgument) throws CommPortException {
+        Request request = textRequest(command);
+        request.hasArguments = true;
+        request.firstArgument = firstArgument;
+        request.secondArgument = secondArgument;
+        return request;
+    }
+
+    private Request frameRequest(int opcode, int firstArgument, int secondArgument) throws CommPortException {
+        Request request = textRequest(FRAME_DESCRIPTION, firstArgument, secondArgument);
+        request.opcode = opcode;
+        return request;
+    }
+
+    //Urgent request does not come from the pipeline slots, it is used once
+    private Request urgentRequest(String command, int opcode) {
+        Request request = new Request();
+        request.clear();
+        request.command = command;
+        request.opcode = opcode;
+        return request;
+    }
+
+    /**Completes the request by the answer line or by the error.
+     * Numeric answer is parsed in place into the values of the request.
+     * Slots of asynchronous requests are released at once,
+     * synchronous ones are released by the waiting sender.
+     */
+    private void finish(Request request, long ticket, LineBuffer line, int offset, String error) {
+        CompletableFuture<String> future;
+        String answer;
+        synchronized (request) {
+            if (request.done || request.ticket != ticket) return;
+            if (line != null) {
+                recordRoundTrip(request);
+                if (line.isFrame()) {
+                    if (line.byteAt(1) != (byte) request.opcode) {
+                        error = "Frame acknowledge of wrong opcode " + (line.byteAt(1) & 0xFF) + " for " + request.describe();
+                    } else if (line.byteAt(3) != LineBuffer.FRAME_STATUS_OK) {
+                        error = "Frame rejected with status " + (line.byteAt(3) & 0xFF) + ": " + request.describe();
+                    }
+                    request.answer = FRAME_ACKNOWLEDGED;
+                } else if (request.values == null) {
+                    request.answer = line.toString(offset);
+                } else {
+                    request.valueCount = line.parseInts(offset, request.values);
+                    if (request.valueCount == 0) error = "Numeric answer expected: " + line.toString(offset);
+                }
+            }
+            request.done = true;
+            request.error = error;
+            recorder.answerReceived(request.opcode, request.sequence(),
+                    (line == null) ? FlightRecorder.STATUS_TIMEOUT : (error == null) ? FlightRecorder.STATUS_OK : FlightRecorder.STATUS_ERROR,
+                    System.nanoTime() - request.sentNanos);
+            answer = request.answer;
+            future = request.future;
+            request.notifyAll();
+        }
+        if (future == null) return;
+        release(request);
+        if (error == null) {
+            if (logger.isDebugEnabled()) logger.debug("HW answer: " + answer);
+            future.complete(answer);
+        } else {
+            future.completeExceptionally(new CommPortException(error));
+        }
+    }
+
+    private void recordRoundTrip(Request request) {
+        long roundTrip = System.nanoTime() - request.sentNanos;
+        if (request.opcode != NO_OPCODE) {
+            metrics.frameRoundTrip(request.opcode).record(roundTrip);
+        } else {
+            metrics.roundTrip(request.command).record(roundTrip);
+        }
+    }
+
+    private void release(Request request) {
+        if (request.urgent) return;
+        synchronized (inFlight) {
+            freeRequests.push(request);
+        }
+        window.release();
+    }
+
+    private void expire(Request request, long ticket) {
+        synchronized (inFlight) {
+            if (request.ticket != ticket || !inFlight.remove(request)) return;
+        }
+        metrics.answerTimeout();
+        finish(request, ticket, null, 0, "Answer timeout expired");
+    }
+
     /**
      * Sends text through the SerialPort and waits for the answer
      * @param command Text to send
      * @return Firmware answer text
      */
     public String sendCommand(String command) throws CommPortException {
-        logger.debug("HW command: "+command);
-        this.sendMessage(command);
-
-        String message = null;
-        long timestamp = new Date().getTime();
-        while (message == null){
-            message = this.checkMessage();
-            if ((new Date().getTime() - timestamp)> LISTENER_TIMEOUT){
-                throw new CommPortException("Answer timeout expired");
+        return awaitAnswer(submit(textRequest(command), null));
+    }
+
+    /**
+     * Sends command with two numeric arguments "&lt;command&gt;&lt;first&gt;,&lt;second&gt;" and waits for the answer.
+     * Arguments are encoded straight into the send buffer without intermediate Strings.
+     * @param command Command text preceding the arguments
+     * @param firstArgument First argument
+     * @param secondArgument Second argument
+     * @return Firmware answer text
+     */
+    public String sendCommand(String command, int firstArgument, int secondArgument) throws CommPortException {
+        return awaitAnswer(submit(textRequest(command, firstArgument, secondArgument), null));
+    }
+
+    /**
+     * Sends binary frame with two int16 arguments and waits for the acknowledge frame.
+     * Use it only if firmware reports "binary" feature.
+     * @param opcode Frame operation code
+     * @param firstArgument First argument
+     * @param secondArgument Second argument
+     * @return Constant acknowledge text
+     */
+    public String sendFrame(int opcode, int firstArgument, int secondArgument) throws CommPortException {
+        return awaitAnswer(submit(frameRequest(opcode, firstArgument, secondArgument), null));
+    }
+
+    private String awaitAnswer(Request request) throws CommPortException {
+        try {
+            await(request);
+            if (logger.isDebugEnabled()) logger.debug("HW answer: " + request.answer);
+            return request.answer;
+        } finally {
+            release(request);
+        }
+    }
+
+    /**
+     * Sends text through the SerialPort and waits for the numeric answer.
+     * The answer is parsed in place without intermediate Strings.
+     * @param command Text to send
+     * @return Firmware answer value
+     */
+    public int sendIntCommand(String command) throws CommPortException {
+        Request request = textRequest(command);
+        request.values = request.singleValue;
+        submit(request, null);
+        try {
+            await(request);
+            if (logger.isDebugEnabled()) logger.debug("HW answer: " + request.singleValue[0]);
+            return request.singleValue[0];
+        } finally {
+            release(request);
+        }
+    }
+
+    /**
+     * Sends text through the SerialPort and waits for the answer of several numbers.
+     * The answer is parsed in place into values array without intermediate Strings.
+     * @param command Text to send
+     * @param values Array to fill with the numbers of the answer
+     * @return Count of numbers received
+     */
+    public int sendIntCommand(String command, int[] values) throws CommPortException {
+        Request request = textRequest(command);
+        request.values = values;
+        submit(request, null);
+        try {
+            await(request);
+            return request.valueCount;
+        } finally {
+            release(request);
+        }
+    }
+
+    /**Waits for the answer of synchronous request until the listener timeout expires.
+     */
+    private void await(Request request) throws CommPortException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LISTENER_TIMEOUT);
+        synchronized (request) {
+            long remaining;
+            while (!request.done && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(request, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
             }
         }
-        logger.debug("HW answer: "+message);
-        return message;
+        synchronized (inFlight) {
+            inFlight.remove(request);
+        }
+        synchronized (request) {
+            boolean answered = request.done;
+            request.done = true;
+            if (!answered) {
+                metrics.answerTimeout();
+                recorder.answerReceived(request.opcode, request.sequence(), FlightRecorder.STATUS_TIMEOUT, System.nanoTime() - request.sentNanos);
+                throw new CommPortException(Thread.currentThread().isInterrupted()
+                        ? "Interrupted while waiting for answer" : "Answer timeout expired");
+            }
+            if (request.error != null) throw new CommPortException(request.error);
+        }
+    }
+
+    /**
+     * Sends text through the SerialPort without waiting for the answer.
+     * Blocks only while the pipeline window is full.
+     * @param command Text to send
+     * @return Future of firmware answer text. Completes exceptionally with CommPortException on timeout.
+     */
+    public CompletableFuture<String> sendCommandAsync(String command) throws CommPortException {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        submit(textRequest(command), future);
+        return future;
+    }
+
+    /**
+     * Sends command with two numeric arguments without waiting for the answer.
+     * @param command Command text preceding the arguments
+     * @param firstArgument First argument
+     * @param secondArgument Second argument
+     * @return Future of firmware answer text
+     * @see #sendCommand(String, int, int)
+     */
+    public CompletableFuture<String> sendCommandAsync(String command, int firstArgument, int secondArgument) throws CommPortException {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        submit(textRequest(command, firstArgument, secondArgument), future);
+        return future;
+    }
+
+    /**
+     * Sends binary frame with two int16 arguments without waiting for the acknowledge.
+     * @param opcode Frame operation code
+     * @param firstArgument First argument
+     * @param secondArgument Second argument
+     * @return Future of constant acknowledge text
+     * @see #sendFrame(int, int, int)
+     */
+    public CompletableFuture<String> sendFrameAsync(int opcode, int firstArgument, int secondArgument) throws CommPortException {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        submit(frameRequest(opcode, firstArgument, secondArgument), future);
+        return future;
+    }
+
+    /**
+     * Sends header-only binary frame "&lt;0xA5&gt;&lt;opcode&gt;&lt;sequence&gt;" ahead of all commands not written yet,
+     * e.g. emergency stop. It takes no pipeline slot and does not wait for the pending answers:
+     * it waits only for the write in progress, so it is never mixed into another command.
+     * Use it only if firmware reports the feature of the opcode.
+     * @param opcode Frame operation code
+     * @return Future of constant acknowledge text
+     */
+    public CompletableFuture<String> sendUrgentFrame(int opcode) throws CommPortException {
+        return submitUrgent(urgentRequest(FRAME_DESCRIPTION, opcode));
+    }
+
+    /**
+     * Sends binary frame with two int16 arguments ahead of all commands not written yet.
+     * @param opcode Frame operation code
+     * @param firstArgument First argument
+     * @param secondArgument Second argument
+     * @return Future of constant acknowledge text
+     * @see #sendUrgentFrame(int)
+     */
+    public CompletableFuture<String> sendUrgentFrame(int opcode, int firstArgument, int secondArgument) throws CommPortException {
+        Request request = urgentRequest(FRAME_DESCRIPTION, opcode);
+        request.hasArguments = true;
+        request.firstArgument = firstArgument;
+        request.secondArgument = secondArgument;
+        return submitUrgent(request);
+    }
+
+    /**
+     * Sends command with two numeric arguments ahead of all commands not written yet.
+     * @param command Command text preceding the arguments
+     * @param firstArgument First argument
+     * @param secondArgument Second argument
+     * @return Future of firmware answer text
+     * @see #sendUrgentFrame(int)
+     */
+    public CompletableFuture<String> sendUrgentCommand(String command, int firstArgument, int secondArgument) throws CommPortException {
+        Request request = urgentRequest(command, NO_OPCODE);
+        request.hasArguments = true;
+        request.firstArgument = firstArgument;
+        request.secondArgument = secondArgument;
+        return submitUrgent(request);
+    }
+
+    /**Pipeline slot. Instances are reused, ticket distinguishes the uses.
+     * Urgent requests are not pooled.
+     */
+    private final class Request {
+        private long ticket;
+        private long sentNanos;
+        private String command;
+        private int opcode;
+        private boolean hasArguments;
+        private int firstArgument;
+        private int secondArgument;
+        private String answer;
+        private String error;
+        private boolean done;
+        private boolean urgent;
+        private CompletableFuture<String> future;
+        private final int[] singleValue = new int[1];
+        private int[] values;
+        private int valueCount;
+
+        private void clear() {
+            synchronized (this) {
+                this.command = null;
+                this.opcode = NO_OPCODE;
+                this.hasArguments = false;
+                this.firstArgument = 0;
+                this.secondArgument = 0;
+                this.values = null;
+                this.valueCount = 0;
+                this.answer = null;
+                this.error = null;
+            }
+        }
+
+        private void start(long ticket, CompletableFuture<String> future) {
+            synchronized (this) {
+                this.ticket = ticket;
+                this.future = future;
+                this.done = false;
+            }
+        }
+
+        private String describe() {
+            if (opcode != NO_OPCODE) return hasArguments ? "frame " + opcode + ":" + firstArgument + "," + secondArgument : "frame " + opcode;
+            return hasArguments ? command + firstArgument + "," + secondArgument : command;
+        }
+
+        private int sequence() {
+            return (int) (ticket & SEQUENCE_MASK);
+        }
     }
 }
@@ -15,11 +15,12 @@ import java.util.TooManyListenersException;
  */
 public class SerialConnection {
     private final int COMM_INTERNAL_TIMEOUT;
+    private final int BOOT_TIMEOUT;
+    private final int BOOT_BAUD_RATE;
+    private int baudRate;
 
     private String portName;
-    private SerialPort serialPort;
-    private InputStream in;
-    private OutputStream out;
+    private Transport transport;
     private final SerialCommunicator serialCommunicator;
 
     private final Logger logger;
@@ -31,6 +32,9 @@ public class SerialConnection {
         logger = Logger.getLogger(this.getClass());
         this.serialCommunicator = new SerialCommunicator(this, config);
         COMM_INTERNAL_TIMEOUT = Integer.parseInt(config.getOption(Config.COMM_PORT_INTERNAL_TIMEOUT));
+        BOOT_TIMEOUT = Integer.parseInt(config.getOption(Config.SERIAL_LISTENER_TIMEOUT));
+        BOOT_BAUD_RATE = Integer.parseInt(config.getOption(Config.SERIAL_BAUD_RATE, "9600"));
+        baudRate = BOOT_BAUD_RATE;
     }
 
     /**
@@ -53,6 +57,23 @@ public class SerialConnection {
         checkPort(commPortIdentifier);
     }
 
+    /**
+     * Attaches already opened transport, e.g. in-process firmware simulator
+     * @param transport Transport to use
+     */
+    public void init(Transport transport) throws CommPortException {
+        clearPortAttributes();
+        this.portName = transport.getName();
+        this.baudRate = BOOT_BAUD_RATE;
+        this.transport = transport;
+        try {
+            this.serialCommunicator.initListener();
+        } catch (TooManyListenersException e) {
+            clearPortAttributes();
+            throw new CommPortException(e.getMessage());
+        }
+    }
+
     /**Getter
      * @return Port name
      */
@@ -69,49 +90,92 @@ public class SerialConnection {
 
     /**
      * Getter
-     * @return SerialPort object
+     * @return SerialPort object or null if connection does not use RXTX transport
      */
     public SerialPort getSerialPort() {
-        return serialPort;
+        return (transport instanceof RxtxTransport) ? ((RxtxTransport) transport).getSerialPort() : null;
+    }
+
+    /**
+     * Getter
+     * @return Transport of the connection
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Getter
+     * @return Current link speed
+     */
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    /**Switches firmware and the port to the new speed without reopening (reopening reboots Arduino).
+     * Firmware confirms the new speed by the "Version" answer. On failure both sides return
+     * to the boot speed: firmware does it itself if no command comes in time.
+     * @param baudRate New speed
+     * @return True if the link works at the new speed
+     */
+    public boolean changeBaudRate(int baudRate) {
+        try {
+            String answer = serialCommunicator.sendCommand("Baud:" + baudRate);
+            if (!answer.equals(String.valueOf(baudRate))) {
+                logger.warn("Firmware refused speed " + baudRate + ": " + answer);
+                return false;
+            }
+            setBaudRate(baudRate);
+            serialCommunicator.sendCommand("Version");
+            logger.info("Port " + portName + " speed changed to " + baudRate);
+            return true;
+        } catch (CommPortException e) {
+            logger.warn("Port " + portName + " does not work at " + baudRate + ": " + e.getMessage());
+        }
+        try {
+            setBaudRate(BOOT_BAUD_RATE);
+            serialCommunicator.sendCommand("Version");
+        } catch (CommPortException e) {
+            logger.error("Port " + portName + " does not work at boot speed after fallback: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private void setBaudRate(int baudRate) throws CommPortException {
+        transport.setBaudRate(baudRate);
+        this.baudRate = baudRate;
     }
 
     /**
-     * Checks the connection is open (serialPort is not null)
+     * Checks the connection is open (transport is not null)
      * @return True\False
      */
     public boolean isConnectionOpened() {
-        return this.serialPort != null;
+        return this.transport != null;
     }
 
     /**
      * Getter
-     * @return SerialPort's Input Stream
+     * @return Transport's Input Stream
      */
     public InputStream getIn() {
-        return in;
+        return transport.getIn();
     }
 
     /**
      * Getter
-     * @return SerialPort's Output Stream
+     * @return Transport's Output Stream
      */
     public OutputStream getOut() {
-        return out;
-    }
-
-    private void initStreams() throws IOException {
-        in = serialPort.getInputStream();
-        out = serialPort.getOutputStream();
+        return transport.getOut();
     }
 
     private void clearPortAttributes(){
         this.portName = null;
-        this.serialPort = null;
-        this.in = null;
-        this.out = null;
+        this.transport = null;
     }
 
-    private void openSerialPort(CommPortIdentifier commPortIdentifier) throws PortInUseException, UnsupportedCommOperationException, CommPortException {
+    private SerialPort openSerialPort(CommPortIdentifier commPortIdentifier) throws PortInUseException, UnsupportedCommOperationException, CommPortException {
         logger.info("Opening port..");
         CommPort commPort = commPortIdentifier.open(this.getClass().getName(), COMM_INTERNAL_TIMEOUT);
         logger.info("Probing opened port as Serial..");
@@ -119,19 +183,28 @@ public class SerialConnection {
             commPort.close();
             throw new CommPortException("Wrong port type. Serial port expected.");
         }
-        serialPort = (SerialPort) commPort;
+        SerialPort serialPort = (SerialPort) commPort;
         logger.info("Setting up the port..");
-        serialPort.setSerialPortParams(9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
-        serialPort.enableReceiveTimeout(COMM_INTERNAL_TIMEOUT);
+        try {
+            serialPort.setSerialPortParams(BOOT_BAUD_RATE, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+            baudRate = BOOT_BAUD_RATE;
+            serialPort.enableReceiveTimeout(COMM_INTERNAL_TIMEOUT);
+        } catch (UnsupportedCommOperationException e) {
+            serialPort.close();
+            throw e;
+        }
+        return serialPort;
     }
 
     private void checkPort(CommPortIdentifier commPortIdentifier) {
         logger.info("Checking port " + portName);
+        SerialPort serialPort = null;
         try {
-            openSerialPort(commPortIdentifier);
+            serialPort = openSerialPort(commPortIdentifier);
             logger.info("Port " + portName + " is available. Trying to work with it as Arduino.");
-            initStreams();
+            transport = new RxtxTransport(serialPort, portName);
             this.serialCommunicator.initListener();
+            waitForBoot();
         } catch (UnsupportedCommOperationException e) {
             if (serialPort != null)serialPort.close();
             clearPortAttributes();
@@ -141,12 +214,24 @@ public class SerialConnection {
         } catch (TooManyListenersException e) {
             logger.error(e.getMessage(), e);
         } catch (IOException e) {
+            if (serialPort != null)serialPort.close();
+            clearPortAttributes();
             logger.error(e.getMessage(), e);
         } catch (CommPortException e) {
             logger.error(e.getMessage(), e);
         }
     }
 
+    //Arduino reboots on port opening
+    private void waitForBoot() {
+        try {
+            Thread.sleep(BOOT_TIMEOUT);
+        } catch (InterruptedException e) {
+            //Keep the flag, so the cancelled probe does not wait for the answer
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private CommPortIdentifier getPortIdentifier(String portName) throws NoSuchPortException {
         logger.info("Getting PortID for \"" + portName + "\"..");
         return CommPortIdentifier.getPortIdentifier(portName);
@@ -167,23 +252,12 @@ public class SerialConnection {
      */
     public void disconnect()
     {
-        this.serialPort.removeEventListener();
-        this.serialPort.close();
-        try {
-            this.in.close();
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
-        }
-        try {
-            this.out.close();
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
-        }
+        if (this.transport != null) this.transport.close();
         clearPortAttributes();
     }
 
     public void pause(){
-        serialPort.removeEventListener();
+        transport.removeDataListener();
     }
 
     public void resume(){
@@ -2,6 +2,8 @@ package ru.ant.rc.serial;
 
 import ru.ant.rc.serial.exception.CommPortException;
 
+import java.util.concurrent.CompletableFuture;
+
 /**Base Driver-abstraction class.
  * Unification of hardware types for your application layer.
  * SerialDriver translates app commands to hardware languages.
@@ -16,6 +18,7 @@ public abstract class SerialDriver {
     private final SerialConnection serialConnection;
     private final Config config;
     private ArduinoState arduinoState;
+    private String hardwareInfo;
 
 
     /**Sends Vector-style command to hardware.
@@ -44,6 +47,47 @@ public abstract class SerialDriver {
      */
     public abstract String sendEachWheelCommand(EachWheelCommand eachWheelCommand) throws CommPortException;
 
+    /**Pipelined variant of {@link #sendVectorCommand sendVectorCommand}.
+     * Returns as soon as the command is written, blocks only while the pipeline window is full.
+     * Default implementation waits for the synchronous answer, override it if the firmware pipelines commands.
+     * @param x X joystick shift
+     * @param y Y joystick shift
+     * @return Future of firmware answer text
+     */
+    public CompletableFuture<String> sendVectorCommandAsync(int x, int y) throws CommPortException {
+        return CompletableFuture.completedFuture(sendVectorCommand(x, y));
+    }
+
+    /**Pipelined variant of {@link #sendTractorCommand sendTractorCommand}.
+     * Returns as soon as the command is written, blocks only while the pipeline window is full.
+     * Default implementation waits for the synchronous answer, override it if the firmware pipelines commands.
+     * @param left Left joystick speed
+     * @param right Right joystick speed
+     * @return Future of firmware answer text
+     */
+    public CompletableFuture<String> sendTractorCommandAsync(int left, int right) throws CommPortException {
+        return CompletableFuture.completedFuture(sendTractorCommand(left, right));
+    }
+
+    /**Pipelined variant of {@link #sendEachWheelCommand sendEachWheelCommand}.
+     * Returns as soon as the command is written, blocks only while the pipeline window is full.
+     * Default implementation waits for the synchronous answer, override it if the firmware pipelines commands.
+     * @param eachWheelCommand Defines speeds for each motor of your device
+     * @return Future of firmware answer text
+     */
+    public CompletableFuture<String> sendEachWheelCommandAsync(EachWheelCommand eachWheelCommand) throws CommPortException {
+        return CompletableFuture.completedFuture(sendEachWheelCommand(eachWheelCommand));
+    }
+
+    /**Stops all motors ahead of every command not sent yet and without waiting for the pending answers.
+     * May be called from any thread, also while another thread waits for the answer.
+     * Returns as soon as the stop is written, missing firmware acknowledge is logged and counted by the metrics.
+     * Default implementation sends the ordinary zero speed command and waits for its answer.
+     */
+    public void emergencyStop() throws CommPortException {
+        sendTractorCommand(0, 0);
+    }
+
     /**Not useful from the application.
      * Initialise {@link SerialHardwareDetector HardwareDetector}
      * and use {@link SerialHardwareDetector#getSerialDriver() detector.getSerialDriver()} method to access a SerialDriver instance
@@ -62,10 +106,15 @@ public abstract class SerialDriver {
     }
 
     public ArduinoState getArduinoState() throws CommPortException {
-        if(arduinoState == null) arduinoState = new ArduinoState(serialCommunicator, config);
+        if(arduinoState == null) arduinoState = new ArduinoState(serialCommunicator, config, hardwareInfo);
         return arduinoState;
     }
 
+    //"Info" answer already received by SerialHardwareDetector
+    void setHardwareInfo(String hardwareInfo) {
+        this.hardwareInfo = hardwareInfo;
+    }
+
     public SerialConnection getSerialConnection() {
         return serialConnection;
     }
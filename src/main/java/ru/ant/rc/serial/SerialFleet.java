@@ -0,0 +1,121 @@
+package ru.ant.rc.serial;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**Drives several robots from one JVM.
+ * Every robot has its own SerialService with its own port, driver, queue and service thread.
+ * Options of the robot are "&lt;robotName&gt;.&lt;key&gt;" overrides of the shared ones, so give every robot its port:
+ * <p>
+ *   robot1.CommPortName=COM3<br />
+ *   robot2.CommPortName=COM4<br />
+ * </p>
+ * <p>
+ *   SerialFleet fleet = new SerialFleet();<br />
+ *   fleet.addRobot("robot1");<br />
+ *   fleet.put("robot1", new TractorCommand(left, right, System.currentTimeMillis()));<br />
+ *   fleet.stopAll();<br />
+ * </p>
+ * @author Ant
+ * @version 1.0
+ */
+public class SerialFleet {
+    private final Map<String, SerialService> services = new ConcurrentHashMap<>();
+    private final Logger log = Logger.getLogger(getClass());
+
+    /**Creates the service of the robot. It connects on the first command.
+     * @param robotName Robot name, prefix of its options
+     * @return Service of the robot
+     */
+    public SerialService addRobot(String robotName) {
+        return services.computeIfAbsent(robotName, name -> {
+            log.info("Adding robot " + name);
+            return new SerialService(new Config(name));
+        });
+    }
+
+    /**Stops and disconnects the robot
+     * @param robotName Robot name
+     */
+    public void removeRobot(String robotName) {
+        SerialService service = services.remove(robotName);
+        if (service != null) service.destroy();
+    }
+
+    /**
+     * @return Names of the fleet robots
+     */
+    public Set<String> getRobotNames() {
+        return Collections.unmodifiableSet(services.keySet());
+    }
+
+    /**
+     * @param robotName Robot name
+     * @return Service of the robot
+     */
+    public SerialService getService(String robotName) {
+        SerialService service = services.get(robotName);
+        if (service == null) throw new IllegalArgumentException("Unknown robot \"" + robotName + "\"");
+        return service;
+    }
+
+    /**Routes the command to the robot
+     * @param robotName Robot name
+     * @param command Command to send
+     */
+    public void put(String robotName, Command command) {
+        getService(robotName).getCommandQueue().put(command);
+    }
+
+    /**Sends the same command to every robot
+     * @param command Command to send, commands are immutable so single instance is shared
+     */
+    public void broadcast(Command command) {
+        for (SerialService service : services.values()) service.getCommandQueue().put(command);
+    }
+
+    /**Stops motors of every robot
+     */
+    public void stopAll() {
+        broadcast(TractorCommand.STOP(System.currentTimeMillis()));
+    }
+
+    /**Stops motors of every robot ahead of their queues
+     * @return Count of robots the stop was written to
+     * @see SerialService#emergencyStop()
+     */
+    public int emergencyStopAll() {
+        int stopped = 0;
+        for (SerialService service : services.values()) {
+            if (service.emergencyStop()) stopped++;
+        }
+        return stopped;
+    }
+
+    /**Stops services and disconnects all robots.
+     * Services are stopped concurrently, so it takes one poll interval regardless of the fleet size.
+     */
+    public void destroy() {
+        List<Thread> threads = new ArrayList<>();
+        for (String robotName : new ArrayList<>(services.keySet())) {
+            Thread thread = new Thread(() -> removeRobot(robotName), "SerialFleet-destroy-" + robotName);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                log.error(e.getMessage(), e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
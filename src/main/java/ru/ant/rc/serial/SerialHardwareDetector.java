@@ -7,8 +7,19 @@ import ru.ant.rc.serial.arduino2wd.Arduino2WDSerialDriver;
 import ru.ant.rc.serial.exception.CommPortException;
 import ru.ant.rc.serial.exception.UnsupportedHardwareException;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**Detects robot on any comm port.
  * Check it's type and init appropriate SerialDriver.
@@ -20,9 +31,10 @@ import java.util.Vector;
 public class SerialHardwareDetector {
     private final int CHASSIS_TYPE_UNDEFINED = 0;
     private final int CHASSIS_TYPE_ARDUINO_2WD = 1;
+    private static final int[] NEGOTIATED_BAUD_RATES = {1000000, 500000, 250000, 230400, 115200, 57600, 38400, 19200};
     private final String configFileName = "serial.conf";
 
-    private final SerialConnection serialConnection;
+    private SerialConnection serialConnection;
     private final int chassisType;
     private final Logger logger;
     private SerialDriver serialDriver;
@@ -43,28 +55,110 @@ public class SerialHardwareDetector {
         this.serialConnection = new SerialConnection(config);
         logger = Logger.getLogger(this.getClass());
 
-        checkSavedPortName();
+        boolean recognized = checkSavedPortName();
 
         if (!serialConnection.isConnectionOpened()) {
             detectCommPort();
         }
 
-        chassisType = detectChassisType();
+        chassisType = recognized ? restoreHardware() : detectHardware();
+        negotiateBaudRate();
+    }
+
+    /**Reopens the known port only, without detection on other ports.
+     * @param config Just pass new Config()
+     * @param portName Port of the robot
+     */
+    public SerialHardwareDetector(Config config, String portName) throws CommPortException, UnsupportedHardwareException {
+        this.config = config;
+        this.serialConnection = new SerialConnection(config);
+        logger = Logger.getLogger(this.getClass());
+
+        boolean recognized = checkPortName(portName);
+        if (!serialConnection.isConnectionOpened()) throw new CommPortException("There is no Arduino on " + portName);
+
+        chassisType = recognized ? restoreHardware() : detectHardware();
+        negotiateBaudRate();
+    }
+
+    /**Initialises SerialDriver over the given transport instead of serial port detection.
+     * Use it to run the stack against in-process firmware simulator.
+     * @param config Just pass new Config()
+     * @param transport Opened transport
+     */
+    public SerialHardwareDetector(Config config, Transport transport) throws CommPortException, UnsupportedHardwareException {
+        this.config = config;
+        this.serialConnection = new SerialConnection(config);
+        logger = Logger.getLogger(this.getClass());
+
+        serialConnection.init(transport);
+        boolean recognized = checkFingerprint();
+        if (!recognized) checkFirmwareVersion();
+
+        chassisType = recognized ? restoreHardware() : detectHardware();
+        negotiateBaudRate();
+    }
+
+    //Full handshake, its result is saved as the fingerprint
+    private int detectHardware() throws CommPortException, UnsupportedHardwareException {
+        int chassisType = detectChassisType();
+        SerialCommunicator serialCommunicator = serialConnection.getSerialCommunicator();
+        serialCommunicator.detectFeatures();
+        initSerialDriver(chassisType);
+        if (serialCommunicator.hasFeature("info")) {
+            String info = serialCommunicator.sendCommand("Info");
+            serialDriver.setHardwareInfo(info);
+            new HardwareFingerprint(serialCommunicator.getFeatures(), info).save(config);
+        }
+        return chassisType;
+    }
 
+    //Handshake results are taken from the matched fingerprint
+    private int restoreHardware() throws CommPortException, UnsupportedHardwareException {
+        HardwareFingerprint fingerprint = HardwareFingerprint.load(config);
+        int chassisType = chassisTypeOf(fingerprint.getHardware());
+        serialConnection.getSerialCommunicator().setFeatures(fingerprint.getFeatures());
+        initSerialDriver(chassisType);
+        serialDriver.setHardwareInfo(fingerprint.getInfo());
+        return chassisType;
+    }
+
+    //Tries the fastest supported speeds down to the current one
+    private void negotiateBaudRate() {
+        int maxBaudRate = Integer.parseInt(config.getOption(Config.SERIAL_NEGOTIATED_BAUD_RATE, "0"));
+        if (maxBaudRate <= serialConnection.getBaudRate() || !serialConnection.getSerialCommunicator().hasFeature("baud")) return;
+        for (int baudRate : NEGOTIATED_BAUD_RATES) {
+            if (baudRate > maxBaudRate) continue;
+            if (baudRate <= serialConnection.getBaudRate()) return;
+            if (serialConnection.changeBaudRate(baudRate)) return;
+        }
+    }
+
+    private void initSerialDriver(int chassisType) {
         //Add new hardware here
         if (chassisType == CHASSIS_TYPE_ARDUINO_2WD)
             serialDriver = new Arduino2WDSerialDriver(serialConnection, config);
+    }
 
+    /**
+     * @return True if the robot on the saved port matches saved fingerprint
+     */
+    private boolean checkSavedPortName(){
+        String portName = config.getOption(Config.COMM_PORT_NAME);
+        if (portName==null){
+            logger.warn("CommPortName not found in configuration file. Nothing to check.");
+            return false;
+        }
+        return checkPortName(portName);
     }
 
-    private void checkSavedPortName(){
+    /**
+     * @return True if the robot on the port matches saved fingerprint
+     */
+    private boolean checkPortName(String portName){
         try {
-            String portName = config.getOption(Config.COMM_PORT_NAME);
-            if (portName==null){
-                logger.warn("CommPortName not found in configuration file. Nothing to check.");
-                return;
-            }
             serialConnection.init(portName);
+            if (checkFingerprint()) return true;
             //Check port by querying Firmware version
             checkFirmwareVersion();
         } catch (NoSuchPortException e) {
@@ -72,9 +166,31 @@ public class SerialHardwareDetector {
         } catch (CommPortException e) {
             logger.error(e.getMessage());
         }
+        return false;
+    }
+
+    //Single "Info" round trip instead of the whole handshake. Old firmware answers "command complete" and does not match.
+    private boolean checkFingerprint() {
+        HardwareFingerprint fingerprint = HardwareFingerprint.load(config);
+        if (fingerprint == null || !serialConnection.isConnectionOpened()) return false;
+        try {
+            String answer = serialConnection.getSerialCommunicator().sendCommand("Info");
+            if (fingerprint.matches(answer)) {
+                logger.info("Port " + serialConnection.getPortName() + " has the known hardware: " + answer);
+                return true;
+            }
+            logger.info("Hardware fingerprint does not match: " + answer);
+        } catch (CommPortException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return false;
     }
 
     private void checkFirmwareVersion() throws CommPortException {
+        checkFirmwareVersion(serialConnection);
+    }
+
+    private void checkFirmwareVersion(SerialConnection serialConnection) throws CommPortException {
         String fwVersion = null;
         try {
             fwVersion = serialConnection.getSerialCommunicator().sendCommand("version");
@@ -90,6 +206,9 @@ public class SerialHardwareDetector {
         logger.info("Detected arduino firmware version: " + fwVersion);
     }
 
+    /**Probes all ports concurrently by the bounded pool.
+     * The first port answering the firmware version wins, other probes are interrupted and close their ports.
+     */
     private void detectCommPort() throws CommPortException {
         logger.info("Trying to detect Arduino on any serial port..");
         Enumeration portEnum = CommPortIdentifier.getPortIdentifiers();
@@ -98,23 +217,68 @@ public class SerialHardwareDetector {
             portVector.add((CommPortIdentifier) portEnum.nextElement());
         }
         int portCount = portVector.size();
-        for(int i=0;i<portCount;i++){
+        if (portCount == 0) throw new CommPortException("Unable to detect Arduino on any COM port");
+
+        int probeThreads = Math.min(portCount, Math.max(1, Integer.parseInt(config.getOption(Config.DETECTOR_PROBE_THREADS, "4"))));
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService probePool = Executors.newFixedThreadPool(probeThreads, runnable -> {
+            Thread thread = new Thread(runnable, "SerialHardwareDetector-probe-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicReference<SerialConnection> detected = new AtomicReference<>();
+        CompletionService<SerialConnection> probes = new ExecutorCompletionService<>(probePool);
+        List<Future<SerialConnection>> futures = new ArrayList<>();
+        for (int i = 0; i < portCount; i++) {
             CommPortIdentifier commPortIdentifier = portVector.get(i);
-            try {
-                String portName = commPortIdentifier.getName();
-                logger.info("Checking port:" + portName + "(" + (i + 1) + " of " + portCount + ")");
-                serialConnection.init(commPortIdentifier, portName);
-                if (!serialConnection.isConnectionOpened()) continue;
-
-                //Check port by querying Firmware version
-                checkFirmwareVersion();
-                saveDetectedPortConfiguration(portName);
-                break;
-            } catch (CommPortException e) {
-                logger.error(e.getMessage(), e);
+            String portName = commPortIdentifier.getName();
+            String progress = "(" + (i + 1) + " of " + portCount + ")";
+            futures.add(probes.submit(() -> probePort(commPortIdentifier, portName, progress, detected)));
+        }
+        try {
+            for (int i = 0; i < portCount && detected.get() == null; i++) {
+                try {
+                    probes.take().get();
+                } catch (ExecutionException e) {
+                    logger.error(e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<SerialConnection> future : futures) future.cancel(true);
+            probePool.shutdown();
+            awaitProbes(probePool);
+        }
+        if (detected.get() == null) throw new CommPortException("Unable to detect Arduino on any COM port");
+        serialConnection = detected.get();
+        saveDetectedPortConfiguration(serialConnection.getPortName());
+    }
+
+    //Probe of separate connection. Only the first successful probe keeps its port open.
+    private SerialConnection probePort(CommPortIdentifier commPortIdentifier, String portName, String progress,
+                                       AtomicReference<SerialConnection> detected) throws CommPortException {
+        logger.info("Checking port:" + portName + progress);
+        SerialConnection connection = new SerialConnection(config);
+        connection.init(commPortIdentifier, portName);
+        if (!connection.isConnectionOpened()) throw new CommPortException("Port " + portName + " is not available");
+        checkFirmwareVersion(connection);
+        if (Thread.currentThread().isInterrupted() || !detected.compareAndSet(null, connection)) {
+            connection.disconnect();
+            throw new CommPortException("Arduino on " + portName + " is ignored, other port is already detected");
+        }
+        return connection;
+    }
+
+    //Cancelled probes close their ports before detection returns
+    private void awaitProbes(ExecutorService probePool) {
+        try {
+            while (!probePool.awaitTermination(1, TimeUnit.SECONDS)) {
+                logger.info("Waiting for cancelled port probes..");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        if (!serialConnection.isConnectionOpened()) throw new CommPortException("Unable to detect Arduino on any COM port");
     }
 
     private void saveDetectedPortConfiguration(String portName) {
@@ -123,7 +287,10 @@ public class SerialHardwareDetector {
     }
 
     private int detectChassisType() throws CommPortException, UnsupportedHardwareException {
-        String result = serialConnection.getSerialCommunicator().sendCommand("hardware");
+        return chassisTypeOf(serialConnection.getSerialCommunicator().sendCommand("hardware"));
+    }
+
+    private int chassisTypeOf(String result) throws UnsupportedHardwareException {
         int chassisType = CHASSIS_TYPE_UNDEFINED;
         if (result.startsWith("Arduino2WD"))
             chassisType = CHASSIS_TYPE_ARDUINO_2WD;
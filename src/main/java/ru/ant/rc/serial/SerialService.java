@@ -3,16 +3,23 @@ package ru.ant.rc.serial;
 import org.apache.log4j.Logger;
 import ru.ant.rc.serial.exception.CommPortException;
 import ru.ant.rc.serial.exception.UnsupportedHardwareException;
+import ru.ant.rc.serial.metrics.SerialMetrics;
+import ru.ant.rc.serial.recorder.FlightRecorder;
 
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**Class running in separate Thread to listen for commands from application.
  * It uses Queue object to collect commands.
+ * Single long-lived service thread is started by the first command and sleeps while the service is stopped.
+ * Next command wakes it up without creating threads.
  * <p>
- *   SerialService serialService = new SerialService(serialDriver, commandQueue);<br />
- *   Thread serialServiceThread = new Thread(serialService);<br />
- *   serialServiceThread.start();<br />
+ *   SerialService serialService = SerialService.getInstance();<br />
+ *   serialService.getCommandQueue().put(new TractorCommand(left, right, System.currentTimeMillis()));<br />
  * </p>
  * <img alt="SerialDriver functional diagram" src="https://raw.github.com/ant2012/SerialDriver/master/SerialDriverArchitecture.png" />
  * @author Ant
@@ -26,36 +33,96 @@ public class SerialService implements Listener {
     }
 
     private SerialService() {
-        commandQueue = new CommandQueue();
-        commandQueue.addDataListener(this);
+        this(new Config());
+    }
 
-        config = new Config();
-        MAX_QUEUE_SIZE = Integer.parseInt(config.getOption(Config.SERVICE_MAX_QUEUE_SIZE));
+    /**Creates independent service instance, e.g. one per robot of {@link SerialFleet}.
+     * Single robot applications use {@link #getInstance()}.
+     * @param config Options of the robot
+     */
+    public SerialService(Config config) {
+        this.config = config;
+        commandQueue = createCommandQueue(config.getOption(Config.SERVICE_QUEUE_MODE, QUEUE_MODE_PRIORITY));
+        commandQueue.addDataListener(this);
+        metrics = SerialMetrics.forRobot(config);
+        metrics.setQueueDepth(commandQueue::size);
+        recorder = FlightRecorder.forRobot(config);
+        commandQueue.setRecorder(recorder);
+        long commandTtl = Long.parseLong(config.getOption(Config.SERVICE_COMMAND_TTL, "0"));
+        commandQueue.setCommandTtl(commandTtl, metrics);
+
+        commandFilter = new CommandFilter(Integer.parseInt(config.getOption(Config.SERVICE_MAX_QUEUE_SIZE)), commandTtl, metrics);
         POLL_WAIT_TIMEOUT = Integer.parseInt(config.getOption(Config.SERVICE_POLL_WAIT_TIMEOUT));
         RECONNECT_TIMEOUT = Integer.parseInt(config.getOption(Config.SERVICE_RECONNECT_TIMEOUT));
+        RECONNECT_MIN_TIMEOUT = Integer.parseInt(config.getOption(Config.SERVICE_RECONNECT_MIN_TIMEOUT, "100"));
         SLEEP_TIMEOUT = Integer.parseInt(config.getOption(Config.SLEEP_TIMEOUT));
+        ASYNC_ACKS = Boolean.parseBoolean(config.getOption(Config.SERVICE_ASYNC_ACKS, "false"));
+        if (ASYNC_ACKS && Integer.parseInt(config.getOption(Config.SERIAL_PIPELINE_WINDOW, "1")) <= 1) {
+            log.warn(Config.SERVICE_ASYNC_ACKS + " has no effect with " + Config.SERIAL_PIPELINE_WINDOW
+                    + "=1: every command still waits for the ack of the previous one");
+        }
+        int controlRate = Integer.parseInt(config.getOption(Config.SERVICE_CONTROL_RATE, "0"));
+        CONTROL_PERIOD_NANOS = (controlRate > 0) ? TimeUnit.SECONDS.toNanos(1) / controlRate : 0;
     }
 
-    private final int MAX_QUEUE_SIZE;
+    private static final String QUEUE_MODE_PRIORITY = "priority";
+    private static final String QUEUE_MODE_CONFLATING = "conflating";
+    //Compared by identity, never sent
+    private static final Command SETPOINT_UNCHANGED = TractorCommand.STOP(0);
+    private final CommandFilter commandFilter;
+    private final SerialMetrics metrics;
+    private final FlightRecorder recorder;
     private final int POLL_WAIT_TIMEOUT;
     private final int RECONNECT_TIMEOUT;
+    private final int RECONNECT_MIN_TIMEOUT;
+    //Reopen attempts of the lost port before the full detection
+    private final int REOPEN_ATTEMPTS = 2;
     private final int SLEEP_TIMEOUT;
-    private SerialDriver serialDriver;
+    //Motion commands are not waited for, their acks are checked by the listener thread
+    private final boolean ASYNC_ACKS;
+    //Consecutive missing or wrong acks considered as the lost link
+    private final int MAX_MISSED_ACKS = 3;
+    private final AtomicInteger missedAcks = new AtomicInteger();
+    //Fixed-rate control tick, 0 means commands are sent as they come
+    private final long CONTROL_PERIOD_NANOS;
+    private long nextTickNanos = 0;
+    private long lastSetpointNanos = 0;
+    private volatile SerialDriver serialDriver;
+    //Incremented by every emergency stop, so the command taken before it is not sent after it
+    private volatile int emergencyStops = 0;
+    //Count of emergency stops at the moment the current command was taken
+    private int takenStops = 0;
+    //Guards the queue clear of the emergency stop against the command take
+    private final Object stopLock = new Object();
+    //Service thread waiting for the command, woken by the queue listener
+    private volatile Thread waiter;
     private final CommandQueue commandQueue;
     private Listener queueListener;
     private Command STOP = TractorCommand.STOP(0);
     private Command lastCommand = STOP;
-    private boolean serviceStopped = true;
-    private boolean serviceStopping = false;
-    private boolean disconnected = true;
+    private final Object lifecycleLock = new Object();
+    private Thread serviceThread;
+    private volatile boolean serviceStopped = true;
+    private volatile boolean serviceStopping = false;
+    private volatile boolean serviceDestroyed = false;
+    private volatile boolean disconnected = true;
+    private String lostPortName;
+    private long linkLostNanos = 0;
+    private int reconnectAttempt = 0;
     private boolean serialListenerPaused = false;
     private int queueSize;
     private final Config config;
 
+    private CommandQueue createCommandQueue(String queueMode) {
+        if (QUEUE_MODE_CONFLATING.equalsIgnoreCase(queueMode)) return new ConflatingCommandQueue();
+        if (!QUEUE_MODE_PRIORITY.equalsIgnoreCase(queueMode)) log.warn("Unknown queue mode \"" + queueMode + "\", using " + QUEUE_MODE_PRIORITY);
+        return new CommandQueue();
+    }
+
     /**
      * Main life-loop of service.
      * It takes your commands from the Queue, checks them and sends to SerialDriver.
-     * Not useful from application. It invokes by Thread.start() method.
+     * Not useful from application. It is invoked by the service thread.
      */
     public void run() {
         log.info("Starting SerialService..");
@@ -66,71 +133,195 @@ public class SerialService implements Listener {
             if(this.serviceStopping) break;
             try {
                 long now = new Date().getTime();
-                serialDriver.getArduinoState().refresh();
-                Command command = this.commandQueue.poll(POLL_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+                Command command = (CONTROL_PERIOD_NANOS > 0) ? takeScheduledCommand() : takeCommand();
+                //Nothing to send, filter, count or record on the idle control tick
+                if (command == SETPOINT_UNCHANGED) continue;
                 //If timeout was expired
                 if (command == null) {
                     //if last command was STOP then continue waiting, else go to send STOP
                     if (lastCommand.equals(STOP)) {
                         log.debug("Lifecycle tick");
-                        if( now - lastCommandTime > SLEEP_TIMEOUT){
-                            log.info("Pause serial listener");
-                            pauseSerialListener();
-                            break;
+                        if( now - lastCommandTime > SLEEP_TIMEOUT && goIdle()){
+                            log.info("Exit the lifecycle");
+                            return;
                         }
                         continue;
                     }
                     command = TractorCommand.STOP(lastCommand.timeMillis);
                 }
+                //Taken before the emergency stop, the robot is already stopped
+                if (takenStops != emergencyStops) {
+                    lastCommand = STOP;
+                    continue;
+                }
                 queueSize = this.commandQueue.size();
 
                 VectorCommand vectorCommand = null;
                 TractorCommand tractorCommand = null;
-                String valueForLog = "";
                 if (command instanceof VectorCommand) {
                     STOP = VectorCommand.STOP(0);
                     vectorCommand = (VectorCommand) command;
-                    valueForLog = vectorCommand.x + "," + vectorCommand.y;
                 }
                 if (command instanceof TractorCommand) {
                     STOP = TractorCommand.STOP(0);
                     tractorCommand = (TractorCommand) command;
-                    valueForLog = tractorCommand.left + "," + tractorCommand.right;
                 }
 
-                if (CheckBypass1(command, valueForLog) || CheckBypass2(command, valueForLog) || CheckBypass3(command, valueForLog)){
+                int bypassRule = commandFilter.bypassRule(command, lastCommand, queueSize);
+                if (bypassRule != 0){
+                    recorder.commandBypassed(command, bypassRule);
+                    //Expired command is never sent, so it must not hide the next equal one
+                    if (bypassRule == CommandFilter.RULE_EXPIRED) continue;
                     lastCommand = command;
                     lastCommandTime = now;
                     continue;
                 }
 
-                if (command instanceof VectorCommand) {
-                    log.info(serialDriver.sendVectorCommand(vectorCommand.x, vectorCommand.y));
-                }
-                if (command instanceof TractorCommand) {
-                    log.info(serialDriver.sendTractorCommand(tractorCommand.left, tractorCommand.right));
+                if (ASYNC_ACKS) {
+                    checkAcks();
+                    CompletableFuture<String> ack = null;
+                    if (command instanceof VectorCommand) {
+                        ack = serialDriver.sendVectorCommandAsync(vectorCommand.x, vectorCommand.y);
+                    }
+                    if (command instanceof TractorCommand) {
+                        ack = serialDriver.sendTractorCommandAsync(tractorCommand.left, tractorCommand.right);
+                    }
+                    if (ack != null) ack.whenComplete(this::ackReceived);
+                } else {
+                    if (command instanceof VectorCommand) {
+                        log.info(serialDriver.sendVectorCommand(vectorCommand.x, vectorCommand.y));
+                    }
+                    if (command instanceof TractorCommand) {
+                        log.info(serialDriver.sendTractorCommand(tractorCommand.left, tractorCommand.right));
+                    }
                 }
 
                 lastCommand = command;
                 lastCommandTime = now;
+                //The command was written after the emergency stop
+                if (takenStops != emergencyStops) {
+                    serialDriver.emergencyStop();
+                    lastCommand = STOP;
+                }
 
             } catch (CommPortException | InterruptedException e) {
                 log.error(e.getMessage(), e);
-                disconnected = true;
+                if (!resynchronize()) dropConnection();
             } catch (Exception e){
                 setStopped();
                 log.info("Exit the lifecycle");
                 throw e;
             }
         }
-        if(serviceStopping) System.out.println();
         setStopped();
         log.info("Exit the lifecycle");
    }
 
+    //Called by the listener (or timeout) thread, so it only counts and reports
+    private void ackReceived(String answer, Throwable error) {
+        if (error == null) {
+            missedAcks.set(0);
+            if (log.isDebugEnabled()) log.debug(answer);
+            return;
+        }
+        Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+        log.warn("Motion command is not acknowledged: " + cause.getMessage());
+        missedAcks.incrementAndGet();
+    }
+
+    private void checkAcks() throws CommPortException {
+        if (missedAcks.get() < MAX_MISSED_ACKS) return;
+        missedAcks.set(0);
+        throw new CommPortException(MAX_MISSED_ACKS + " motion commands in a row are not acknowledged");
+    }
+
+    private Command takeCommand() throws CommPortException, InterruptedException {
+        Command command = pollCommand();
+        if (command != null) return command;
+        refreshArduinoState();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(POLL_WAIT_TIMEOUT);
+        //Published before the poll, so the command put in between unparks the thread
+        waiter = Thread.currentThread();
+        try {
+            long left;
+            while ((command = pollCommand()) == null && (left = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, left);
+                if (Thread.interrupted()) throw new InterruptedException("Waiting for the command interrupted");
+            }
+        } finally {
+            waiter = null;
+        }
+        return command;
+    }
+
+    //Command is taken together with the count of emergency stops, so commands put after the stop are still sent
+    private Command pollCommand() {
+        synchronized (stopLock) {
+            takenStops = emergencyStops;
+            return this.commandQueue.poll();
+        }
+    }
+
+    /**Waits for the next control tick and takes the newest command put since the previous tick.
+     * Unchanged setpoint is returned as {@link #SETPOINT_UNCHANGED} marker, so it is not sent.
+     * Null (STOP) is returned if no command came during PollWaitTimeout.
+     */
+    private Command takeScheduledCommand() throws CommPortException {
+        long now = System.nanoTime();
+        if (nextTickNanos == 0) nextTickNanos = now;
+        while ((now = System.nanoTime()) - nextTickNanos < 0 && !serviceStopping) {
+            LockSupport.parkNanos(this, nextTickNanos - now);
+        }
+        //Missed ticks are skipped, not caught up
+        nextTickNanos = Math.max(nextTickNanos + CONTROL_PERIOD_NANOS, now);
+
+        Command newest = null;
+        Command command;
+        synchronized (stopLock) {
+            takenStops = emergencyStops;
+            while ((command = this.commandQueue.poll()) != null) {
+                if (newest == null || command.timeMillis >= newest.timeMillis) newest = command;
+            }
+        }
+        if (newest != null) {
+            lastSetpointNanos = now;
+            return newest;
+        }
+        refreshArduinoState();
+        if (now - lastSetpointNanos < TimeUnit.MILLISECONDS.toNanos(POLL_WAIT_TIMEOUT)) return SETPOINT_UNCHANGED;
+        return null;
+    }
+
+    //Telemetry uses the link only while no motion command is pending
+    private void refreshArduinoState() throws CommPortException {
+        if (!this.commandQueue.isEmpty()) return;
+        serialDriver.getArduinoState().refresh();
+    }
+
+    //Stops for sleep unless a command came. Under the lock start() can not slip in between the check and the stop.
+    private boolean goIdle() {
+        synchronized (lifecycleLock) {
+            if (serviceStopping || !commandQueue.isEmpty()) return false;
+            //Producer does not call start() while it sees the service running,
+            //so the queue is checked again after the flag is visible to it
+            serviceStopped = true;
+            if (!commandQueue.isEmpty()) {
+                serviceStopped = false;
+                return false;
+            }
+            log.info("Pause serial listener");
+            pauseSerialListener();
+            setStopped();
+            return true;
+        }
+    }
+
     private void setStopped() {
-        serviceStopped = true;
-        serviceStopping = false;
+        synchronized (lifecycleLock) {
+            serviceStopped = true;
+            serviceStopping = false;
+            lifecycleLock.notifyAll();
+        }
     }
 
     private void setRunning() {
@@ -140,14 +331,46 @@ public class SerialService implements Listener {
 
     private void setStopping() {
         serviceStopping = true;
+        lifecycleLock.notifyAll();
     }
 
+    /**
+     * Wakes up the service thread, starting it on the first call. Returns at once.
+     */
     public void start(){
-        if(!serviceStopped || serviceStopping) return;
-        setRunning();
-        resumeSerialListener();
-        run();
-//        new Thread(this).start();
+        synchronized (lifecycleLock) {
+            if(!serviceStopped || serviceStopping || serviceDestroyed) return;
+            setRunning();
+            if (serviceThread == null) {
+                String robotName = config.getRobotName();
+                serviceThread = new Thread(this::serve, (robotName == null) ? "SerialService" : "SerialService-" + robotName);
+                serviceThread.setDaemon(true);
+                serviceThread.start();
+            }
+            lifecycleLock.notifyAll();
+        }
+    }
+
+    //Service thread body: sleeps while the service is stopped, runs the life-loop while it is running
+    private void serve() {
+        while (!serviceDestroyed) {
+            synchronized (lifecycleLock) {
+                while (serviceStopped && !serviceDestroyed) {
+                    try {
+                        lifecycleLock.wait();
+                    } catch (InterruptedException e) {
+                        if (!serviceDestroyed) log.error(e.getMessage(), e);
+                    }
+                }
+            }
+            if (serviceDestroyed) break;
+            try {
+                resumeSerialListener();
+                run();
+            } catch (RuntimeException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
     }
 
     private void pauseSerialListener() {
@@ -162,74 +385,119 @@ public class SerialService implements Listener {
     }
 
 
-    //Bypass the entries older then last sent
-    private boolean CheckBypass1(Command command, String valueForLog){
-        boolean result = false;
-        if (command.timeMillis < lastCommand.timeMillis){
-            //log.info("Bypass1 value of [" + valueForLog + "] for " + command.timeMillis + " < " + lastCommand.timeMillis);
-            result = true;
-        }
-        return result;
-    }
-
-    //Bypass the same command
-    private boolean CheckBypass2(Command command, String valueForLog){
-        boolean result = false;
-        if (command.equals(lastCommand)){
-            //log.info("Bypass2 value of [" + valueForLog + "] already sent");
-            result = true;
+    /**
+     * First recovery tier: checks the link in place by single "Version" round trip.
+     * Stale answers of the timed out commands are dropped by the communicator.
+     * @return True if the firmware answers
+     */
+    private boolean resynchronize() {
+        if (serialDriver == null || !serialDriver.getSerialConnection().isConnectionOpened()) return false;
+        try {
+            log.info("SerialService: Resynchronizing the link..");
+            String version = serialDriver.getSerialConnection().getSerialCommunicator().sendCommand("Version");
+            log.info("Link is alive, firmware version " + version);
+            return true;
+        } catch (CommPortException e) {
+            log.error(e.getMessage());
+            return false;
         }
-        return result;
     }
 
-    //Bypass entries if queue is too long
-    private boolean CheckBypass3(Command command, String valueForLog){
-        boolean result = false;
-        if (queueSize > MAX_QUEUE_SIZE){
-            //log.info("Bypass3 value of [" + valueForLog + "] for " + queueSize + ">" + MAX_QUEUE_SIZE);
-            result = true;
-        }
-        return result;
+    //Closes the port, so it can be reopened by reConnect()
+    private void dropConnection() {
+        lostPortName = (serialDriver == null) ? null : serialDriver.getSerialConnection().getPortName();
+        linkLostNanos = System.nanoTime();
+        disconnect();
+        reconnectAttempt = 0;
     }
 
     /**
-     * Tries to reconnect robot after lost connection
+     * Tries to reconnect robot after lost connection.
+     * Second recovery tier reopens the lost port, the third one runs the full detection.
+     * Failed attempts are retried after exponential backoff from ReconnectMinTimeout up to ReconnectTimeout.
      */
     private void reConnect() {
         try {
-            log.info("SerialService: Trying to reConnect robot..");
-            SerialHardwareDetector serialHardwareDetector = new SerialHardwareDetector(config);
+            SerialHardwareDetector serialHardwareDetector;
+            if (lostPortName != null && reconnectAttempt < REOPEN_ATTEMPTS) {
+                log.info("SerialService: Trying to reopen port " + lostPortName + "..");
+                serialHardwareDetector = new SerialHardwareDetector(config, lostPortName);
+            } else {
+                log.info("SerialService: Trying to reConnect robot..");
+                serialHardwareDetector = new SerialHardwareDetector(config);
+            }
             this.serialDriver = serialHardwareDetector.getSerialDriver();
             disconnected = false;
+            lostPortName = null;
+            reconnectAttempt = 0;
+            if (linkLostNanos != 0) metrics.reconnected(System.nanoTime() - linkLostNanos);
+            linkLostNanos = 0;
         } catch (CommPortException | UnsupportedHardwareException e) {
             log.error(e.getMessage());
+            metrics.reconnectFailed();
             disconnected = true;
-            try {
-                Thread.sleep(RECONNECT_TIMEOUT);
-            } catch (InterruptedException e1) {
-                log.error(e1.getMessage(), e1);
+            long backoff = Math.min(RECONNECT_TIMEOUT, (long) RECONNECT_MIN_TIMEOUT << Math.min(reconnectAttempt, 20));
+            reconnectAttempt++;
+            //stop() interrupts the wait
+            synchronized (lifecycleLock) {
+                try {
+                    if (!serviceStopping) lifecycleLock.wait(backoff);
+                } catch (InterruptedException e1) {
+                    log.error(e1.getMessage(), e1);
+                }
             }
         }
     }
 
+    /**Stops the robot at once from the calling thread, e.g. by the safety button.
+     * Queued commands are dropped and the stop goes ahead of them without waiting for the answer
+     * the service thread may be waiting for. The command the service thread has already taken is not sent,
+     * or it is followed by one more stop if it was written in between.
+     * Commands put later are executed as usual.
+     * @return False if there is no link to the robot, firmware stops itself after its STOP_TIMEOUT
+     */
+    public boolean emergencyStop() {
+        synchronized (stopLock) {
+            emergencyStops++;
+            commandQueue.clear();
+        }
+        SerialDriver driver = serialDriver;
+        if (driver == null || disconnected) {
+            log.warn("Emergency stop: robot is not connected");
+            return false;
+        }
+        try {
+            driver.emergencyStop();
+            metrics.emergencyStop();
+            log.warn("Emergency stop");
+            return true;
+        } catch (CommPortException e) {
+            log.error("Emergency stop failed: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
     /**
-     * Use it before destroy the Thread
+     * Stops the life-loop. Returns within one poll interval.
      */
     public void stop(){
-        if(serviceStopping || serviceStopped) return;
-        setStopping();
-        log.info("Stopping SerialService..");
-
-        while(!serviceStopped) {
-            try {
-                System.out.print(".");
-                Thread.sleep(POLL_WAIT_TIMEOUT);
-            } catch (InterruptedException e) {
-                log.error("Sleep error", e);
+        synchronized (lifecycleLock) {
+            if(serviceStopping || serviceStopped) return;
+            setStopping();
+            log.info("Stopping SerialService..");
+
+            while(!serviceStopped) {
+                try {
+                    lifecycleLock.wait();
+                } catch (InterruptedException e) {
+                    log.error("Stop waiting interrupted", e);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
             }
         }
 
-        serialDriver.pause();
+        if (serialDriver != null) serialDriver.pause();
     }
 
 //    public void stopNowait(){
@@ -265,6 +533,10 @@ public class SerialService implements Listener {
 
     public void destroy(){
         stop();
+        synchronized (lifecycleLock) {
+            serviceDestroyed = true;
+            lifecycleLock.notifyAll();
+        }
 
         disconnect();
 
@@ -279,14 +551,9 @@ public class SerialService implements Listener {
 
     @Override
     public void queueDataAvailable() {
-//        start();
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                SerialService.this.start();
-            }
-        }).start();
-
+        //Volatile reads only while the service is running
+        if (serviceStopped) start();
+        else LockSupport.unpark(waiter);
     }
 
 }
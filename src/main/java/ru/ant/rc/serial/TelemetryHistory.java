@@ -0,0 +1,348 @@
+package ru.ant.rc.serial;
+
+import java.util.Arrays;
+
+/**Bounded time series of hardware state samples with rolling statistics.
+ * Samples are compressed into a ring of fixed-size blocks of bits, the oldest block is dropped when the ring is full.
+ * Timestamps and counter fields (e.g. UpTime) are stored as delta-of-delta, gauge fields (e.g. Voltage)
+ * as XOR with the previous value, so a steady sample takes a few bits per field.
+ * Rolling minimum, maximum and mean of every field are kept over windows of the last N samples.
+ * Everything is held in primitive arrays allocated once; adding and querying create no per-sample objects.
+ * Thread safe.
+ * @author Ant
+ * @version 1.0
+ */
+public class TelemetryHistory {
+    private static final int BLOCK_LONGS = 64;
+    private static final int BLOCK_BITS = BLOCK_LONGS * Long.SIZE;
+
+    private final int fieldCount;
+    private final boolean[] counters;
+    private final int maxSampleBits;
+    private final long[][] blocks;
+    private final long[] blockStartTimes;
+    private final int[] blockSamples;
+    private int firstBlock = 0;
+    private int blockCount = 0;
+    private int bitPosition = BLOCK_BITS;
+    private final Codec encoder;
+    private final RollingWindow[][] windows;
+
+    /**
+     * @param counters One flag per field: true for counters stored as delta-of-delta, false for gauges stored as XOR
+     * @param blockCount Count of 512-byte blocks kept
+     * @param windowSizes Sample counts of the rolling windows, positive
+     */
+    public TelemetryHistory(boolean[] counters, int blockCount, int[] windowSizes) {
+        for (int windowSize : windowSizes) {
+            if (windowSize <= 0) throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.fieldCount = counters.length;
+        this.counters = counters.clone();
+        //Worst case: 4 control bits and 64 bits of delta-of-delta, 12 control bits and 32 bits of XOR
+        this.maxSampleBits = 68 + fieldCount * 68;
+        this.blocks = new long[Math.max(1, blockCount)][BLOCK_LONGS];
+        this.blockStartTimes = new long[blocks.length];
+        this.blockSamples = new int[blocks.length];
+        this.encoder = new Codec(fieldCount);
+        this.windows = new RollingWindow[fieldCount][windowSizes.length];
+        for (int field = 0; field < fieldCount; field++) {
+            for (int window = 0; window < windowSizes.length; window++) {
+                windows[field][window] = new RollingWindow(windowSizes[window]);
+            }
+        }
+    }
+
+    /**
+     * @param timeMillis Sample time
+     * @param values Field values, extra ones are ignored
+     */
+    public synchronized void add(long timeMillis, int[] values) {
+        if (bitPosition + maxSampleBits > BLOCK_BITS) {
+            startBlock(timeMillis);
+        } else {
+            encoder.encodeTime(timeMillis);
+        }
+        for (int field = 0; field < fieldCount; field++) {
+            encoder.encodeValue(field, values[field]);
+            for (RollingWindow window : windows[field]) window.add(values[field]);
+        }
+        blockSamples[lastBlock()]++;
+        bitPosition = encoder.position;
+    }
+
+    //First sample of the block is encoded against zero state, its time is kept in the block header
+    private void startBlock(long timeMillis) {
+        if (blockCount == blocks.length) {
+            firstBlock = (firstBlock + 1) % blocks.length;
+            blockCount--;
+        }
+        blockCount++;
+        int block = lastBlock();
+        Arrays.fill(blocks[block], 0);
+        blockStartTimes[block] = timeMillis;
+        blockSamples[block] = 0;
+        bitPosition = 0;
+        encoder.reset(blocks[block], timeMillis);
+    }
+
+    private int lastBlock() {
+        return (firstBlock + blockCount - 1) % blocks.length;
+    }
+
+    /**
+     * @return Count of the samples kept
+     */
+    public synchronized int getSampleCount() {
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) count += blockSamples[(firstBlock + i) % blocks.length];
+        return count;
+    }
+
+    /**
+     * @return Time of the oldest sample kept or 0 if there are no samples
+     */
+    public synchronized long getOldestTime() {
+        return (blockCount == 0) ? 0 : blockStartTimes[firstBlock];
+    }
+
+    /**
+     * @return Bytes of compressed samples kept
+     */
+    public synchronized int getCompressedBytes() {
+        return (blockCount == 0) ? 0 : (blockCount - 1) * BLOCK_LONGS * Long.BYTES + (bitPosition + 7) / 8;
+    }
+
+    public int getWindowCount() {
+        return windows[0].length;
+    }
+
+    /**
+     * @return Count of the last samples covered by the window
+     */
+    public int getWindowSize(int window) {
+        return windows[0][window].getSize();
+    }
+
+    public synchronized int getMin(int field, int window) {
+        return windows[field][window].getMin();
+    }
+
+    public synchronized int getMax(int field, int window) {
+        return windows[field][window].getMax();
+    }
+
+    /**
+     * @return Mean of the window or NaN if there are no samples
+     */
+    public synchronized double getMean(int field, int window) {
+        return windows[field][window].getMean();
+    }
+
+    /**Downsamples the field into buckets of equal time.
+     * Bucket i covers [fromMillis + i * bucketMillis, fromMillis + (i + 1) * bucketMillis).
+     * Empty bucket gets NaN mean and zero minimum and maximum.
+     * @param field Field index
+     * @param fromMillis Start of the first bucket
+     * @param bucketMillis Bucket duration
+     * @param mins Minimums to fill, its length is the count of buckets
+     * @param maxs Maximums to fill, the same length
+     * @param means Means to fill, the same length
+     * @return Count of samples in the buckets
+     */
+    public synchronized int query(int field, long fromMillis, long bucketMillis, int[] mins, int[] maxs, double[] means) {
+        int buckets = means.length;
+        int[] counts = new int[buckets];
+        Arrays.fill(means, 0);
+        Codec decoder = new Codec(fieldCount);
+        int total = 0;
+        for (int i = 0; i < blockCount; i++) {
+            int block = (firstBlock + i) % blocks.length;
+            decoder.reset(blocks[block], blockStartTimes[block]);
+            for (int sample = 0; sample < blockSamples[block]; sample++) {
+                long timeMillis = (sample == 0) ? blockStartTimes[block] : decoder.decodeTime();
+                int value = 0;
+                for (int f = 0; f < fieldCount; f++) {
+                    int decoded = decoder.decodeValue(f);
+                    if (f == field) value = decoded;
+                }
+                if (timeMillis < fromMillis) continue;
+                long bucket = (timeMillis - fromMillis) / bucketMillis;
+                if (bucket >= buckets) continue;
+                int index = (int) bucket;
+                if (counts[index] == 0 || value < mins[index]) mins[index] = value;
+                if (counts[index] == 0 || value > maxs[index]) maxs[index] = value;
+                means[index] += value;
+                counts[index]++;
+                total++;
+            }
+        }
+        for (int i = 0; i < buckets; i++) {
+            if (counts[i] > 0) {
+                means[i] /= counts[i];
+            } else {
+                means[i] = Double.NaN;
+                mins[i] = 0;
+                maxs[i] = 0;
+            }
+        }
+        return total;
+    }
+
+    /**Bit stream state shared by the encoder and the decoders
+     */
+    private final class Codec {
+        private long[] block;
+        private int position;
+        private long lastTime;
+        private long lastTimeDelta;
+        private final long[] lastValues;
+        private final long[] lastDeltas;
+        private final int[] lastLeading;
+        private final int[] lastLength;
+
+        private Codec(int fieldCount) {
+            lastValues = new long[fieldCount];
+            lastDeltas = new long[fieldCount];
+            lastLeading = new int[fieldCount];
+            lastLength = new int[fieldCount];
+        }
+
+        private void reset(long[] block, long startTime) {
+            this.block = block;
+            this.position = 0;
+            this.lastTime = startTime;
+            this.lastTimeDelta = 0;
+            Arrays.fill(lastValues, 0);
+            Arrays.fill(lastDeltas, 0);
+            Arrays.fill(lastLength, 0);
+        }
+
+        private void encodeTime(long timeMillis) {
+            long delta = timeMillis - lastTime;
+            writeDeltaOfDelta(delta - lastTimeDelta);
+            lastTime = timeMillis;
+            lastTimeDelta = delta;
+        }
+
+        private long decodeTime() {
+            lastTimeDelta += readDeltaOfDelta();
+            lastTime += lastTimeDelta;
+            return lastTime;
+        }
+
+        private void encodeValue(int field, int value) {
+            if (counters[field]) {
+                long delta = value - lastValues[field];
+                writeDeltaOfDelta(delta - lastDeltas[field]);
+                lastDeltas[field] = delta;
+            } else {
+                writeXor(field, (int) lastValues[field] ^ value);
+            }
+            lastValues[field] = value;
+        }
+
+        private int decodeValue(int field) {
+            if (counters[field]) {
+                lastDeltas[field] += readDeltaOfDelta();
+                lastValues[field] += lastDeltas[field];
+            } else {
+                lastValues[field] = (int) lastValues[field] ^ readXor(field);
+            }
+            return (int) lastValues[field];
+        }
+
+        //'0' for zero, '10' + 7 bits, '110' + 9 bits, '1110' + 12 bits, '1111' + 64 bits
+        private void writeDeltaOfDelta(long value) {
+            if (value == 0) {
+                write(0, 1);
+            } else if (value >= -64 && value < 64) {
+                write(0b10, 2);
+                write(value, 7);
+            } else if (value >= -256 && value < 256) {
+                write(0b110, 3);
+                write(value, 9);
+            } else if (value >= -2048 && value < 2048) {
+                write(0b1110, 4);
+                write(value, 12);
+            } else {
+                write(0b1111, 4);
+                write(value, 64);
+            }
+        }
+
+        private long readDeltaOfDelta() {
+            if (read(1) == 0) return 0;
+            if (read(1) == 0) return signed(read(7), 7);
+            if (read(1) == 0) return signed(read(9), 9);
+            if (read(1) == 0) return signed(read(12), 12);
+            return read(64);
+        }
+
+        //'0' for equal value, '10' + bits within the previous leading and trailing zeros,
+        //'11' + 5 bits of leading zeros + 5 bits of length - 1 + meaningful bits
+        private void writeXor(int field, int xor) {
+            if (xor == 0) {
+                write(0, 1);
+                return;
+            }
+            int leading = Integer.numberOfLeadingZeros(xor);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            int previousLength = lastLength[field];
+            if (previousLength > 0 && leading >= lastLeading[field] && trailing >= Integer.SIZE - lastLeading[field] - previousLength) {
+                write(0b10, 2);
+                write(xor >>> (Integer.SIZE - lastLeading[field] - previousLength), previousLength);
+                return;
+            }
+            int length = Integer.SIZE - leading - trailing;
+            write(0b11, 2);
+            write(leading, 5);
+            write(length - 1, 5);
+            write(xor >>> trailing, length);
+            lastLeading[field] = leading;
+            lastLength[field] = length;
+        }
+
+        private int readXor(int field) {
+            if (read(1) == 0) return 0;
+            if (read(1) == 0) {
+                return (int) read(lastLength[field]) << (Integer.SIZE - lastLeading[field] - lastLength[field]);
+            }
+            int leading = (int) read(5);
+            int length = (int) read(5) + 1;
+            lastLeading[field] = leading;
+            lastLength[field] = length;
+            return (int) read(length) << (Integer.SIZE - leading - length);
+        }
+
+        private void write(long value, int count) {
+            if (count < Long.SIZE) value &= (1L << count) - 1;
+            int index = position >>> 6;
+            int free = Long.SIZE - (position & 63);
+            if (count <= free) {
+                block[index] |= value << (free - count);
+            } else {
+                block[index] |= value >>> (count - free);
+                block[index + 1] |= value << (Long.SIZE - (count - free));
+            }
+            position += count;
+        }
+
+        private long read(int count) {
+            int index = position >>> 6;
+            int free = Long.SIZE - (position & 63);
+            long value;
+            if (count <= free) {
+                value = block[index] >>> (free - count);
+            } else {
+                value = (block[index] << (count - free)) | (block[index + 1] >>> (Long.SIZE - (count - free)));
+            }
+            position += count;
+            return (count < Long.SIZE) ? value & ((1L << count) - 1) : value;
+        }
+
+        private long signed(long value, int count) {
+            return (value << (Long.SIZE - count)) >> (Long.SIZE - count);
+        }
+    }
+}
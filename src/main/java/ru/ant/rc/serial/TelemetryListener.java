@@ -0,0 +1,14 @@
+package ru.ant.rc.serial;
+
+/**Receives telemetry pushed by firmware without request.
+ * Called from the Transport listener thread, so it must not block or send commands.
+ * @author Ant
+ * @version 1.0
+ */
+public interface TelemetryListener {
+    /**
+     * @param values Voltage, Temperature, FreeRAM, UpTime in the order of "State" answer. Valid until return only.
+     * @param count Count of received values
+     */
+    void telemetryReceived(int[] values, int count);
+}
@@ -26,7 +26,19 @@ public class TractorCommand extends Command {
         this.right = right;
     }
 
-    /**Constructs the STOP command instance (lef=right=0)
+    /**Command dropped after the deadline instead of reaching hardware late
+     * @param left Left joystick speed
+     * @param right Right joystick speed
+     * @param timeMillis Timestamp of command.
+     * @param deadlineMillis Time after which the command is not sent, 0 to use SerialService.CommandTtl
+     */
+    public TractorCommand(int left, int right, long timeMillis, long deadlineMillis) {
+        super(timeMillis, deadlineMillis);
+        this.left = left;
+        this.right = right;
+    }
+
+    /**Constructs the STOP command instance (lef=right=0). STOP never expires.
      * @param timeMillis Timestamp of command.
      *                   Used in SerialService to check obsolete commands
      *                   and to prevent bad order.
@@ -34,7 +46,13 @@ public class TractorCommand extends Command {
      *                   For example in case of ajax RC.
      */
     public static TractorCommand STOP(long timeMillis) {
-        return new TractorCommand(0, 0, timeMillis);
+        return new TractorCommand(0, 0, timeMillis, NO_DEADLINE);
+    }
+
+    /**{@inheritDoc}*/
+    @Override
+    public boolean isStop() {
+        return left == 0 && right == 0;
     }
 
     /**{@inheritDoc}
@@ -0,0 +1,49 @@
+package ru.ant.rc.serial;
+
+import ru.ant.rc.serial.exception.CommPortException;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.TooManyListenersException;
+
+/**Byte link between SerialCommunicator and the hardware.
+ * {@link RxtxTransport} is the serial port implementation,
+ * in-process implementations (like firmware simulators) allow to run the stack without hardware.
+ * @author Ant
+ * @version 1.0
+ */
+public interface Transport {
+
+    /**
+     * @return Link name (port name for serial ports)
+     */
+    String getName();
+
+    /**
+     * @return Stream of bytes received from the hardware
+     */
+    InputStream getIn();
+
+    /**
+     * @return Stream of bytes sent to the hardware
+     */
+    OutputStream getOut();
+
+    /**Registers the listener invoked when received data become available.
+     * Only one listener is supported.
+     */
+    void setDataListener(Runnable dataListener) throws TooManyListenersException;
+
+    /**Stops notifications of received data
+     */
+    void removeDataListener();
+
+    /**Changes the link speed in place, without reopening
+     * @param baudRate Bits per second
+     */
+    void setBaudRate(int baudRate) throws CommPortException;
+
+    /**Closes the link
+     */
+    void close();
+}
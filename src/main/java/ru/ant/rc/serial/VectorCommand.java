@@ -28,7 +28,19 @@ public class VectorCommand extends Command {
         this.y = y;
     }
 
-    /**Constructs the STOP command instance (x=y=0)
+    /**Command dropped after the deadline instead of reaching hardware late
+     * @param x X joystick shift
+     * @param y Y joystick shift
+     * @param timeMillis Timestamp of command.
+     * @param deadlineMillis Time after which the command is not sent, 0 to use SerialService.CommandTtl
+     */
+    public VectorCommand(int x, int y, long timeMillis, long deadlineMillis) {
+        super(timeMillis, deadlineMillis);
+        this.x = x;
+        this.y = y;
+    }
+
+    /**Constructs the STOP command instance (x=y=0). STOP never expires.
      * @param timeMillis Timestamp of command.
      *                   Used in SerialService to check obsolete commands
      *                   and to prevent bad order.
@@ -36,7 +48,13 @@ public class VectorCommand extends Command {
      *                   For example in case of ajax RC.
      */
     public static VectorCommand STOP(long timeMillis) {
-        return new VectorCommand(0, 0, timeMillis);
+        return new VectorCommand(0, 0, timeMillis, NO_DEADLINE);
+    }
+
+    /**{@inheritDoc}*/
+    @Override
+    public boolean isStop() {
+        return x == 0 && y == 0;
     }
 
     /**{@inheritDoc}
@@ -1,8 +1,15 @@
 package ru.ant.rc.serial.arduino2wd;
 
+import org.apache.log4j.Logger;
 import ru.ant.rc.serial.*;
 import ru.ant.rc.serial.exception.CommPortException;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static ru.ant.rc.serial.arduino2wd.WheelMixer.leftWheelSpeed;
+import static ru.ant.rc.serial.arduino2wd.WheelMixer.rightWheelSpeed;
+
 /**SerialDriver extension for Arduino-based 2WD wheel robot.
  * Used for translate commands from your application to your hardware (firmware logic).
  * Modify it for your Robot Firmware.
@@ -15,6 +22,17 @@ public class Arduino2WDSerialDriver extends SerialDriver {
 
     private final int maxClientValue = 100;
     private final int maxSpeed = 255;
+    private static final String DIGITAL_COMMAND = "Digital:";
+    private static final int DIGITAL_OPCODE = 0x01;
+    private static final int STOP_OPCODE = 0x02;
+    private static final String MIXER_TABLE = "table";
+    private static final String MIXER_INTEGER = "integer";
+    private static final String MIXER_REFERENCE = "reference";
+    private final boolean binaryProtocol;
+    private final boolean emergencyStopFrame;
+    private static volatile WheelMixer tableMixer;
+    private final WheelMixer wheelMixer;
+    private final Logger logger;
 
     /**Not useful from the application.
      * Initialise {@link SerialHardwareDetector HardwareDetector}
@@ -22,70 +40,100 @@ public class Arduino2WDSerialDriver extends SerialDriver {
      */
     public Arduino2WDSerialDriver(SerialConnection serialConnection, Config config) {
         super(serialConnection, config);
+        binaryProtocol = Boolean.parseBoolean(config.getOption(Config.ARDUINO2WD_BINARY_PROTOCOL, "true"))
+                && serialCommunicator.hasFeature("binary");
+        emergencyStopFrame = serialCommunicator.hasFeature("estop");
+        logger = Logger.getLogger(this.getClass());
+        wheelMixer = createWheelMixer(config.getOption(Config.ARDUINO2WD_MIXER, MIXER_TABLE));
     }
 
     @Override
     public String sendVectorCommand(int x, int y) throws CommPortException {
-        String command = generateDigitalCommand(x, -y);
-        return this.serialCommunicator.sendCommand(command);
+        long wheelSpeeds = wheelMixer.mixVector(x, -y);
+        return sendDigitalCommand(leftWheelSpeed(wheelSpeeds), rightWheelSpeed(wheelSpeeds));
     }
 
     @Override
     public String sendTractorCommand(int left, int right) throws CommPortException {
-        int leftSign  = (left <0)?-1:1;
-        int rightSign = (right<0)?-1:1;
-        int leftWheelSpeed  = (Math.abs(left) >=this.maxClientValue)?leftSign *this.maxSpeed:left *this.maxSpeed/this.maxClientValue;
-        int rightWheelSpeed = (Math.abs(right)>=this.maxClientValue)?rightSign*this.maxSpeed:right*this.maxSpeed/this.maxClientValue;
-        return this.serialCommunicator.sendCommand(generateDigitalCommand(new Arduino2WDEachWheelCommand(-leftWheelSpeed, -rightWheelSpeed)));
+        long wheelSpeeds = wheelMixer.mixTractor(left, right);
+        return sendDigitalCommand(leftWheelSpeed(wheelSpeeds), rightWheelSpeed(wheelSpeeds));
     }
 
     @Override
     public String sendEachWheelCommand(EachWheelCommand eachWheelCommand) throws CommPortException {
         Arduino2WDEachWheelCommand arduino2WDEachWheelCommand = (Arduino2WDEachWheelCommand)eachWheelCommand;
-        return this.serialCommunicator.sendCommand(generateDigitalCommand(arduino2WDEachWheelCommand));
+        return sendDigitalCommand(arduino2WDEachWheelCommand.leftWheelSpeed, arduino2WDEachWheelCommand.rightWheelSpeed);
     }
 
-    private String generateDigitalCommand(Arduino2WDEachWheelCommand arduino2WDEachWheelCommand) {
-        return "Digital:" + arduino2WDEachWheelCommand.leftWheelSpeed + "," + arduino2WDEachWheelCommand.rightWheelSpeed;
+    @Override
+    public CompletableFuture<String> sendVectorCommandAsync(int x, int y) throws CommPortException {
+        long wheelSpeeds = wheelMixer.mixVector(x, -y);
+        return sendDigitalCommandAsync(leftWheelSpeed(wheelSpeeds), rightWheelSpeed(wheelSpeeds));
     }
 
-    private String generateDigitalCommand(int x, int y){
-
-        //Save max values - it is self adaptation
-        //if(Math.abs(x) > this.maxClientValue)this.maxClientValue = Math.abs(x);
-        //if(Math.abs(y) > this.maxClientValue)this.maxClientValue = Math.abs(y);
-        int c = (int) Math.round(Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2)));
-        //if(c > this.maxSpeed)this.maxSpeed = c;
+    @Override
+    public CompletableFuture<String> sendTractorCommandAsync(int left, int right) throws CommPortException {
+        long wheelSpeeds = wheelMixer.mixTractor(left, right);
+        return sendDigitalCommandAsync(leftWheelSpeed(wheelSpeeds), rightWheelSpeed(wheelSpeeds));
+    }
 
-        //Normalize speeds to range 0..255 using max value
-        c = (c>=this.maxClientValue)?this.maxSpeed:this.maxSpeed * c / this.maxClientValue;
-        //x = (this.maxClientValue<=x)?this.maxSpeed:this.maxSpeed * x / this.maxClientValue;
-        int sign = (y<0)?-1:1;
+    @Override
+    public CompletableFuture<String> sendEachWheelCommandAsync(EachWheelCommand eachWheelCommand) throws CommPortException {
+        Arduino2WDEachWheelCommand arduino2WDEachWheelCommand = (Arduino2WDEachWheelCommand)eachWheelCommand;
+        return sendDigitalCommandAsync(arduino2WDEachWheelCommand.leftWheelSpeed, arduino2WDEachWheelCommand.rightWheelSpeed);
+    }
 
+    //Firmware without "estop" gets the ordinary STOP command by the same urgent lane
+    @Override
+    public void emergencyStop() throws CommPortException {
+        CompletableFuture<String> ack;
+        if (emergencyStopFrame) {
+            ack = this.serialCommunicator.sendUrgentFrame(STOP_OPCODE);
+        } else if (binaryProtocol) {
+            ack = this.serialCommunicator.sendUrgentFrame(DIGITAL_OPCODE, 0, 0);
+        } else {
+            ack = this.serialCommunicator.sendUrgentCommand(DIGITAL_COMMAND, 0, 0);
+        }
+        ack.whenComplete((answer, error) -> {
+            if (error != null) logger.error("Emergency stop is not acknowledged: " + error.getMessage());
+        });
+    }
 
-        y = (y==0)?0:this.maxSpeed/(Math.abs(x/y)+1);
+    //Binary frame is 7 bytes long against up to 18 bytes of "Digital:-255,-255" text
+    private String sendDigitalCommand(int leftWheelSpeed, int rightWheelSpeed) throws CommPortException {
+        if (binaryProtocol) return this.serialCommunicator.sendFrame(DIGITAL_OPCODE, leftWheelSpeed, rightWheelSpeed);
+        return this.serialCommunicator.sendCommand(DIGITAL_COMMAND, leftWheelSpeed, rightWheelSpeed);
+    }
 
-        y = (this.maxSpeed > y) ? y : this.maxSpeed;
-        y = sign * y;
+    //Frame status is checked by SerialCommunicator, text answer must echo the command
+    private CompletableFuture<String> sendDigitalCommandAsync(int leftWheelSpeed, int rightWheelSpeed) throws CommPortException {
+        if (binaryProtocol) return this.serialCommunicator.sendFrameAsync(DIGITAL_OPCODE, leftWheelSpeed, rightWheelSpeed);
+        return this.serialCommunicator.sendCommandAsync(DIGITAL_COMMAND, leftWheelSpeed, rightWheelSpeed)
+                .thenApply(answer -> checkEcho(answer, leftWheelSpeed, rightWheelSpeed));
+    }
 
-        //Set direction sign
-        c = c * sign;
+    private String checkEcho(String answer, int leftWheelSpeed, int rightWheelSpeed) {
+        String expected = "\"" + DIGITAL_COMMAND + leftWheelSpeed + "," + rightWheelSpeed + "\" command complete";
+        if (!expected.equals(answer)) {
+            throw new CompletionException(new CommPortException("Unexpected answer " + answer + " instead of " + expected));
+        }
+        return answer;
+    }
 
-        //2WD transform from joystick Vector to wheel's speed
-        int  leftWheelSpeed = 0;
-        int rightWheelSpeed = 0;
+    private WheelMixer createWheelMixer(String mixerType) {
+        IntegerWheelMixer integerMixer = new IntegerWheelMixer(maxClientValue, maxSpeed);
+        if (MIXER_INTEGER.equalsIgnoreCase(mixerType)) return integerMixer;
+        if (MIXER_REFERENCE.equalsIgnoreCase(mixerType)) return new ReferenceWheelMixer(maxClientValue, maxSpeed);
+        if (!MIXER_TABLE.equalsIgnoreCase(mixerType)) logger.warn("Unknown mixer \"" + mixerType + "\", using " + MIXER_TABLE);
+        //Table is built once per JVM, concurrent drivers may build it twice, the result is the same
+        if (tableMixer == null) tableMixer = new TableWheelMixer(integerMixer, maxClientValue);
+        return tableMixer;
+    }
 
-        // (I) & (IV) quadrants
-        if (x >= 0) {
-            leftWheelSpeed = c;
-            rightWheelSpeed = y;
-        }
-        // (II) & (III) quadrants
-        if (x < 0) {
-            rightWheelSpeed = c;
-            leftWheelSpeed = y;
-        }
-        //Format is "Digital:leftWheelSpeed,rightWheelSpeed"
-        return generateDigitalCommand(new Arduino2WDEachWheelCommand(leftWheelSpeed, rightWheelSpeed));
+    /**Getter
+     * @return Mixer translating joystick positions to wheel speeds
+     */
+    public WheelMixer getWheelMixer() {
+        return wheelMixer;
     }
 }
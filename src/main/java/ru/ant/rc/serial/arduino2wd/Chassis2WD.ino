@@ -15,10 +15,27 @@
 #define ROTATE_CW  0
 #define ROTATE_CCW 1
 #define STOP_TIMEOUT 3000
-#define VERSION "0.0.3"
+#define VERSION "0.0.9"
+// Boot speed. Negotiated speed falls back to it unless a command is received in BAUD_CONFIRM_TIMEOUT
+#define BAUD_DEFAULT 9600
+#define BAUD_CONFIRM_TIMEOUT 2000
+// Prefix of telemetry line pushed without request
+#define TELEMETRY_PREFIX "!S "
 
 #define VOLTAGE_PIN 0
 
+// Binary frame: <FRAME_START><opcode><sequence><payload>
+// Acknowledge:  <FRAME_START><opcode><sequence><status>
+// FRAME_START never appears in the ASCII text commands
+#define FRAME_START 0xA5
+#define FRAME_HEADER_LENGTH 3
+#define FRAME_DIGITAL 0x01
+#define FRAME_DIGITAL_LENGTH 7
+// Emergency stop is header-only and is executed by serialEvent() at once, before anything received later
+#define FRAME_STOP 0x02
+#define FRAME_STATUS_OK 0
+#define FRAME_STATUS_UNKNOWN 1
+
 const int SPEED_HALF = (SPEED_MAX-SPEED_MIN)/2 + SPEED_MIN;
 
 int leftWheelSpeed;
@@ -31,8 +48,18 @@ String inputString = "";
 boolean stringComplete = false;
 
 String answer;
+String answerTag;
+
+byte frame[FRAME_DIGITAL_LENGTH];
+int frameLength = 0;
+boolean frameComplete = false;
 
 unsigned long lastCommandTimestamp;
+unsigned long streamPeriod = 0;
+long pendingBaudRate = 0;
+boolean baudConfirming = false;
+unsigned long baudSwitchTimestamp;
+unsigned long lastStreamTimestamp;
 
 void clear()
 {
@@ -115,6 +142,37 @@ void showHardwareType()
   answer = "Arduino2WD DFRobot mobile platform";
 }
 
+// Comma separated list of optional protocol features
+// tag - command may be prefixed by "#<sequence> ", the prefix is echoed in the answer
+// binary - motion commands may be sent as binary frames
+// info - "Info" answers all static fields at once
+// state - "State" answers all telemetry fields at once
+// stream - "Stream:<ms>" pushes "!S <State>" line every <ms> milliseconds, 0 stops it
+// baud - "Baud:<rate>" answers <rate> and switches the serial speed after the answer
+// estop - binary FRAME_STOP stops the motors as soon as it is received
+void showFeatures()
+{
+  answer = "tag,binary,info,state,stream,baud,estop";
+}
+
+const long SUPPORTED_BAUD_RATES[] = {9600, 19200, 38400, 57600, 115200, 230400, 250000, 500000, 1000000};
+
+void setBaudRate(long rate)
+{
+  pendingBaudRate = 0;
+  for (unsigned int i = 0; i < sizeof(SUPPORTED_BAUD_RATES) / sizeof(SUPPORTED_BAUD_RATES[0]); i++)
+  {
+    if (SUPPORTED_BAUD_RATES[i] == rate) pendingBaudRate = rate;
+  }
+  answer = (pendingBaudRate == 0) ? String("Unsupported baud rate") : String(rate, DEC);
+}
+
+void switchBaudRate(long rate)
+{
+  Serial.flush();
+  Serial.begin(rate);
+}
+
 //Copy from https://code.google.com/p/tinkerit/wiki/SecretVoltmeter
 long readVcc() {
   long result;
@@ -285,10 +343,75 @@ void getGccCpuTarget() {
 #endif
 }
 
+// Version|Hardware|TotalRAM|SketchSize|TotalFlash|GccVersion|LibcVersion|SketchSourceName|CompileDate|GccCpuTarget
+void getInfo() {
+  String info;
+  showVersion();       info = answer + '|';
+  showHardwareType();  info += answer + '|';
+  getTotalRAM();       info += answer + '|';
+  getSketchSize();     info += answer + '|';
+  getTotalFlash();     info += answer + '|';
+  getGccVersion();     info += answer + '|';
+  getLibcVersion();    info += answer + '|';
+  getSketchSourceName(); info += answer + '|';
+  getCompileDate();    info += answer + '|';
+  getGccCpuTarget();   info += answer;
+  answer = info;
+}
+
+// Voltage,Temperature,FreeRAM,UpTime
+void getState() {
+  String state;
+  getVoltage();     state = answer + ',';
+  getTemperature(); state += answer + ',';
+  getFreeRAM();     state += answer + ',';
+  getUpTime();      state += answer;
+  answer = state;
+}
+
+int frameLengthOf(byte opcode)
+{
+  if (opcode == FRAME_DIGITAL) return FRAME_DIGITAL_LENGTH;
+  return FRAME_HEADER_LENGTH;
+}
+
+void sendFrameAck(byte opcode, byte sequence, byte status)
+{
+  Serial.write(FRAME_START);
+  Serial.write(opcode);
+  Serial.write(sequence);
+  Serial.write(status);
+}
+
+// Digital frame payload is big-endian int16 left speed and int16 right speed
+void processFrame()
+{
+  byte opcode = frame[1];
+  byte sequence = frame[2];
+  if (opcode == FRAME_DIGITAL)
+  {
+    int16_t leftSpeed  = (int16_t)(((uint16_t)frame[3] << 8) | frame[4]);
+    int16_t rightSpeed = (int16_t)(((uint16_t)frame[5] << 8) | frame[6]);
+    digitalMove(abs(leftSpeed),  (leftSpeed  < 0) ? DIRECTION_BACKWARD : DIRECTION_FORWARD,
+                abs(rightSpeed), (rightSpeed < 0) ? DIRECTION_BACKWARD : DIRECTION_FORWARD);
+    sendFrameAck(opcode, sequence, FRAME_STATUS_OK);
+  } else
+  {
+    sendFrameAck(opcode, sequence, FRAME_STATUS_UNKNOWN);
+  }
+}
+
+void emergencyStop(byte sequence)
+{
+  clear();
+  doMovement();
+  sendFrameAck(FRAME_STOP, sequence, FRAME_STATUS_OK);
+}
+
 void setup()
 {
   lastCommandTimestamp = millis();
-  Serial.begin(9600);
+  Serial.begin(BAUD_DEFAULT);
   inputString.reserve(200);
   pinMode(DIR_RIGHT,   OUTPUT);
   pinMode(SPEED_RIGHT, OUTPUT);
@@ -304,12 +427,43 @@ void loop()
     clear();
     doMovement();
   }
+  if (baudConfirming && millis() - baudSwitchTimestamp > BAUD_CONFIRM_TIMEOUT)
+  {
+    // Host did not manage to talk at the new speed
+    baudConfirming = false;
+    switchBaudRate(BAUD_DEFAULT);
+  }
+  if (streamPeriod > 0 && millis() - lastStreamTimestamp >= streamPeriod)
+  {
+    lastStreamTimestamp = millis();
+    getState();
+    Serial.print(String(TELEMETRY_PREFIX) + answer + '\n');
+  }
+  if (frameComplete)
+  {
+    frameComplete = false;
+    baudConfirming = false;
+    processFrame();
+  }
   while (stringComplete)
   {
     stringComplete = false;
+    baudConfirming = false;
     String s = inputString;
     inputString = "";
     finished = false;
+
+    // Strip the sequence tag of pipelined command, it is echoed back with the answer
+    answerTag = "";
+    if (s.charAt(0) == '#')
+    {
+        int tagEnd = s.indexOf(' ');
+        if (tagEnd > 0)
+        {
+            answerTag = s.substring(0, tagEnd + 1);
+            s = s.substring(tagEnd + 1);
+        }
+    }
     
     answer = "\"" + s + "\" command complete";
 
@@ -323,6 +477,21 @@ void loop()
         showHardwareType();
         break;
     }
+    if(s.equalsIgnoreCase("Features"))
+    {
+        showFeatures();
+        break;
+    }
+    if(s.equalsIgnoreCase("Info"))
+    {
+        getInfo();
+        break;
+    }
+    if(s.equalsIgnoreCase("State"))
+    {
+        getState();
+        break;
+    }
     if(s.equalsIgnoreCase("Voltage"))
     {
         getVoltage();
@@ -404,6 +573,17 @@ void loop()
         rotateCCW(SPEED_HALF);
         break;
     }
+    if(s.indexOf("Baud:")==0)
+    {
+        setBaudRate(s.substring(5).toInt());
+        break;
+    }
+    if(s.indexOf("Stream:")==0)
+    {
+        streamPeriod = s.substring(7).toInt();
+        lastStreamTimestamp = millis();
+        break;
+    }
     if(s.indexOf("Digital:")==0)
     {
         int commaPosition = s.indexOf(",");
@@ -431,15 +611,44 @@ void loop()
   
   if (!finished)
   {
-    Serial.print(answer + '\n');
+    Serial.print(answerTag + answer + '\n');
     finished = true;
   }
+  if (pendingBaudRate != 0)
+  {
+    // The answer is sent at the old speed
+    switchBaudRate(pendingBaudRate);
+    pendingBaudRate = 0;
+    baudConfirming = true;
+    baudSwitchTimestamp = millis();
+  }
 }
 
 void serialEvent() {
   while (Serial.available()) {
+    // collect the binary frame up to its opcode specific length
+    if (frameLength > 0) {
+      frame[frameLength++] = (byte)Serial.read();
+      if (frameLength >= FRAME_HEADER_LENGTH && frameLength == frameLengthOf(frame[1])) {
+        frameLength = 0;
+        // stop does not wait for the loop, reading goes on
+        if (frame[1] == FRAME_STOP) {
+          emergencyStop(frame[2]);
+          continue;
+        }
+        frameComplete = true;
+        break;
+      }
+      continue;
+    }
     // get the new byte:
     char inChar = (char)Serial.read(); 
+    // binary frame may start only between the text lines
+    if ((byte)inChar == FRAME_START && inputString.length() == 0) {
+      frame[0] = FRAME_START;
+      frameLength = 1;
+      continue;
+    }
     // if the incoming character is a newline, set a flag
     // so the main loop can do something about it:
     if (inChar == '\n') {
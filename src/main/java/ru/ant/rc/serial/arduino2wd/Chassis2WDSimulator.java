@@ -0,0 +1,426 @@
+package ru.ant.rc.serial.arduino2wd;
+
+import org.apache.log4j.Logger;
+import ru.ant.rc.serial.Transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**In-process Transport speaking the Chassis2WD.ino command set.
+ * Models the airtime of every byte at the given baud rate and the firmware processing delay,
+ * so throughput and latency of the whole stack can be measured without hardware.
+ * Bytes sent while host and firmware speeds differ are lost, like on the real link.
+ * <p>
+ *   SerialHardwareDetector detector = new SerialHardwareDetector(config, new Chassis2WDSimulator(9600, 1000));<br />
+ * </p>
+ * @author Ant
+ * @version 1.0
+ * @see Arduino2WDSerialDriver
+ */
+public class Chassis2WDSimulator implements Transport {
+    private static final String VERSION = "0.0.9";
+    private static final String HARDWARE = "Arduino2WD simulated platform";
+    private static final String TELEMETRY_PREFIX = "!S ";
+    private static final String FEATURES = "tag,binary,info,state,stream,baud,estop";
+    private static final int[] SUPPORTED_BAUD_RATES = {9600, 19200, 38400, 57600, 115200, 230400, 250000, 500000, 1000000};
+    private final int STOP_TIMEOUT = 3000;
+    private final int BAUD_DEFAULT = 9600;
+    private final int BAUD_CONFIRM_TIMEOUT = 2000;
+    private final int BITS_PER_BYTE = 10;
+    private final int NEW_LINE_ASCII = 10;
+    private final int FRAME_START = 0xA5;
+    private final int FRAME_HEADER_LENGTH = 3;
+    private final int FRAME_DIGITAL = 0x01;
+    private final int FRAME_DIGITAL_LENGTH = 7;
+    private final int FRAME_STOP = 0x02;
+    private final int FRAME_STATUS_OK = 0;
+    private final int FRAME_STATUS_UNKNOWN = 1;
+    private final int SPEED_HALF = 138;
+
+    private final long startMillis = System.currentTimeMillis();
+    private final long processingNanos;
+    private volatile int hostBaudRate;
+    private volatile int firmwareBaudRate;
+    private boolean baudConfirming = false;
+    private long baudSwitchMillis = 0;
+    private long uplinkFreeNanos = 0;
+    private final BlockingQueue<Chunk> uplink = new LinkedBlockingQueue<>();
+    private final HostInputStream in = new HostInputStream(4096);
+    private final OutputStream out = new HostOutputStream();
+    private volatile Runnable dataListener;
+    private volatile boolean closed = false;
+    private final Thread firmwareThread;
+
+    private final StringBuilder inputString = new StringBuilder();
+    private final byte[] frame = new byte[FRAME_DIGITAL_LENGTH];
+    private int frameLength = 0;
+    private long lastCommandMillis = System.currentTimeMillis();
+    private long streamPeriodMillis = 0;
+    private long lastStreamMillis = 0;
+    private volatile int leftWheelSpeed = 0;
+    private volatile int rightWheelSpeed = 0;
+    private volatile int voltage = 700;
+    private volatile int temperature = 25000;
+
+    private final Logger logger = Logger.getLogger(this.getClass());
+
+    /**Starts the simulated firmware
+     * @param baudRate Simulated serial link speed of both sides
+     * @param processingMicros Simulated firmware processing time of every command
+     */
+    public Chassis2WDSimulator(int baudRate, long processingMicros) {
+        this.hostBaudRate = baudRate;
+        this.firmwareBaudRate = baudRate;
+        this.processingNanos = TimeUnit.MICROSECONDS.toNanos(processingMicros);
+        firmwareThread = new Thread(this::runFirmware, "Chassis2WDSimulator");
+        firmwareThread.setDaemon(true);
+        firmwareThread.start();
+    }
+
+    /**Changes serial speed of the host side
+     */
+    @Override
+    public void setBaudRate(int baudRate) {
+        this.hostBaudRate = baudRate;
+    }
+
+    /**
+     * @return Current serial speed of the firmware side
+     */
+    public int getFirmwareBaudRate() {
+        return firmwareBaudRate;
+    }
+
+    private long byteNanos(int baudRate) {
+        return TimeUnit.SECONDS.toNanos(BITS_PER_BYTE) / baudRate;
+    }
+
+    @Override
+    public String getName() {
+        return "Chassis2WDSimulator";
+    }
+
+    @Override
+    public InputStream getIn() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOut() {
+        return out;
+    }
+
+    @Override
+    public void setDataListener(Runnable dataListener) {
+        this.dataListener = dataListener;
+    }
+
+    @Override
+    public void removeDataListener() {
+        this.dataListener = null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dataListener = null;
+        firmwareThread.interrupt();
+    }
+
+    /**
+     * @return Current signed speed of the left wheel (negative means backward)
+     */
+    public int getLeftWheelSpeed() {
+        return leftWheelSpeed;
+    }
+
+    /**
+     * @return Current signed speed of the right wheel (negative means backward)
+     */
+    public int getRightWheelSpeed() {
+        return rightWheelSpeed;
+    }
+
+    /**Sets the raw value answered to "Voltage" command
+     */
+    public void setVoltage(int voltage) {
+        this.voltage = voltage;
+    }
+
+    /**Sets the value answered to "Temperature" command
+     */
+    public void setTemperature(int temperature) {
+        this.temperature = temperature;
+    }
+
+    private void runFirmware() {
+        while (!closed) {
+            try {
+                Chunk chunk = uplink.poll(pollTimeout(), TimeUnit.MILLISECONDS);
+                if (System.currentTimeMillis() - lastCommandMillis > STOP_TIMEOUT) move(0, 0);
+                if (baudConfirming && System.currentTimeMillis() - baudSwitchMillis > BAUD_CONFIRM_TIMEOUT) {
+                    baudConfirming = false;
+                    firmwareBaudRate = BAUD_DEFAULT;
+                }
+                pushTelemetry();
+                if (chunk == null) continue;
+                parkUntil(chunk.arrivalNanos);
+                if (chunk.baudRate != firmwareBaudRate) {
+                    //Garbage at the wrong speed
+                    inputString.setLength(0);
+                    frameLength = 0;
+                    continue;
+                }
+                for (byte byteOfData : chunk.bytes) receive(byteOfData);
+            } catch (InterruptedException e) {
+                if (!closed) logger.error(e.getMessage(), e);
+                return;
+            }
+        }
+    }
+
+    private long pollTimeout() {
+        long timeout = STOP_TIMEOUT;
+        long now = System.currentTimeMillis();
+        if (streamPeriodMillis > 0) timeout = Math.min(timeout, lastStreamMillis + streamPeriodMillis - now);
+        if (baudConfirming) timeout = Math.min(timeout, baudSwitchMillis + BAUD_CONFIRM_TIMEOUT + 1 - now);
+        return Math.max(1, timeout);
+    }
+
+    private void pushTelemetry() {
+        long now = System.currentTimeMillis();
+        if (streamPeriodMillis == 0 || now - lastStreamMillis < streamPeriodMillis) return;
+        lastStreamMillis = now;
+        respond(toLine(TELEMETRY_PREFIX + state()));
+    }
+
+    private String state() {
+        return voltage + "," + temperature + ",1024," + (System.currentTimeMillis() - startMillis);
+    }
+
+    //Same framing as serialEvent() of the firmware
+    private void receive(byte byteOfData) {
+        if (frameLength > 0) {
+            frame[frameLength++] = byteOfData;
+            if (frameLength >= FRAME_HEADER_LENGTH && frameLength == frameLengthOf(frame[1])) {
+                frameLength = 0;
+                baudConfirming = false;
+                processFrame();
+            }
+            return;
+        }
+        if ((byteOfData & 0xFF) == FRAME_START && inputString.length() == 0) {
+            frame[0] = byteOfData;
+            frameLength = 1;
+            return;
+        }
+        if (byteOfData == NEW_LINE_ASCII) {
+            baudConfirming = false;
+            String command = inputString.toString();
+            inputString.setLength(0);
+            processCommand(command);
+            return;
+        }
+        inputString.append((char) byteOfData);
+    }
+
+    private int frameLengthOf(byte opcode) {
+        return (opcode == FRAME_DIGITAL) ? FRAME_DIGITAL_LENGTH : FRAME_HEADER_LENGTH;
+    }
+
+    private void processFrame() {
+        if (frame[1] == FRAME_STOP) {
+            move(0, 0);
+            respond(new byte[]{(byte) FRAME_START, frame[1], frame[2], (byte) FRAME_STATUS_OK});
+            return;
+        }
+        int status = FRAME_STATUS_UNKNOWN;
+        if (frame[1] == FRAME_DIGITAL) {
+            move((short) (((frame[3] & 0xFF) << 8) | (frame[4] & 0xFF)), (short) (((frame[5] & 0xFF) << 8) | (frame[6] & 0xFF)));
+            status = FRAME_STATUS_OK;
+        }
+        respond(new byte[]{(byte) FRAME_START, frame[1], frame[2], (byte) status});
+    }
+
+    private void processCommand(String s) {
+        String answerTag = "";
+        if (s.startsWith("#")) {
+            int tagEnd = s.indexOf(' ');
+            if (tagEnd > 0) {
+                answerTag = s.substring(0, tagEnd + 1);
+                s = s.substring(tagEnd + 1);
+            }
+        }
+        String answer = "\"" + s + "\" command complete";
+        int newBaudRate = 0;
+        switch (s.toLowerCase()) {
+            case "version": answer = VERSION; break;
+            case "hardware": answer = HARDWARE; break;
+            case "features": answer = FEATURES; break;
+            case "voltage": answer = String.valueOf(voltage); break;
+            case "temperature": answer = String.valueOf(temperature); break;
+            case "info": answer = String.join("|", VERSION, HARDWARE, "2048", "9216", "32768", "4.3.2", "1.6.4",
+                    "Chassis2WD.ino", "Jan 01 2016 00:00:00", "AVR_ATmega328P"); break;
+            case "state": answer = state(); break;
+            case "freeram": answer = "1024"; break;
+            case "totalram": answer = "2048"; break;
+            case "sketchsize": answer = "9216"; break;
+            case "totalflash": answer = "32768"; break;
+            case "gccversion": answer = "4.3.2"; break;
+            case "libcversion": answer = "1.6.4"; break;
+            case "sketchsourcename": answer = "Chassis2WD.ino"; break;
+            case "compiledate": answer = "Jan 01 2016 00:00:00"; break;
+            case "uptime": answer = String.valueOf(System.currentTimeMillis() - startMillis); break;
+            case "gcccputarget": answer = "AVR_ATmega328P"; break;
+            case "cw":
+            case "rotatecw": move(SPEED_HALF, -SPEED_HALF); break;
+            case "ccw":
+            case "rotateccw": move(-SPEED_HALF, SPEED_HALF); break;
+            default:
+                if (s.startsWith("Baud:")) {
+                    newBaudRate = supportedBaudRate(toInt(s.substring(5)));
+                    answer = (newBaudRate == 0) ? "Unsupported baud rate" : String.valueOf(newBaudRate);
+                }
+                if (s.startsWith("Stream:")) {
+                    streamPeriodMillis = Math.max(0, toInt(s.substring(7)));
+                    lastStreamMillis = System.currentTimeMillis();
+                }
+                int commaPosition = s.indexOf(',');
+                if (s.startsWith("Digital:") && commaPosition > 8) {
+                    move(toInt(s.substring(8, commaPosition)), toInt(s.substring(commaPosition + 1)));
+                }
+        }
+        respond(toLine(answerTag + answer));
+        //The answer is sent at the old speed
+        if (newBaudRate != 0) {
+            firmwareBaudRate = newBaudRate;
+            baudConfirming = true;
+            baudSwitchMillis = System.currentTimeMillis();
+        }
+    }
+
+    private int supportedBaudRate(int baudRate) {
+        for (int supported : SUPPORTED_BAUD_RATES) {
+            if (supported == baudRate) return baudRate;
+        }
+        return 0;
+    }
+
+    private byte[] toLine(String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (char character : text.toCharArray()) bytes.write(character);
+        bytes.write(NEW_LINE_ASCII);
+        return bytes.toByteArray();
+    }
+
+    //String.toInt() of Arduino returns 0 on garbage
+    private int toInt(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void move(int left, int right) {
+        leftWheelSpeed = left;
+        rightWheelSpeed = right;
+        lastCommandMillis = System.currentTimeMillis();
+    }
+
+    //Processing delay, then the answer airtime
+    private void respond(byte[] bytes) {
+        int baudRate = firmwareBaudRate;
+        long deadline = System.nanoTime() + processingNanos + bytes.length * byteNanos(baudRate);
+        parkUntil(deadline);
+        if (baudRate != hostBaudRate) return;
+        in.put(bytes);
+        Runnable listener = dataListener;
+        if (listener != null) listener.run();
+    }
+
+    private void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !closed) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    //Bytes sent by the host arrive after their airtime
+    private class HostOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            byte[] bytes = new byte[len];
+            System.arraycopy(b, off, bytes, 0, len);
+            int baudRate = hostBaudRate;
+            uplinkFreeNanos = Math.max(System.nanoTime(), uplinkFreeNanos) + len * byteNanos(baudRate);
+            uplink.add(new Chunk(bytes, uplinkFreeNanos, baudRate));
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] bytes;
+        private final long arrivalNanos;
+        private final int baudRate;
+
+        private Chunk(byte[] bytes, long arrivalNanos, int baudRate) {
+            this.bytes = bytes;
+            this.arrivalNanos = arrivalNanos;
+            this.baudRate = baudRate;
+        }
+    }
+
+    //Bytes received by the host
+    private static class HostInputStream extends InputStream {
+        private final byte[] data;
+        private int head = 0;
+        private int count = 0;
+
+        private HostInputStream(int capacity) {
+            data = new byte[capacity];
+        }
+
+        private synchronized void put(byte[] bytes) {
+            for (byte byteOfData : bytes) {
+                if (count == data.length) return;
+                data[(head + count++) % data.length] = byteOfData;
+            }
+        }
+
+        @Override
+        public synchronized int available() {
+            return count;
+        }
+
+        @Override
+        public synchronized int read() {
+            if (count == 0) return -1;
+            int byteOfData = data[head] & 0xFF;
+            head = (head + 1) % data.length;
+            count--;
+            return byteOfData;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            if (count == 0) return -1;
+            int read = Math.min(len, count);
+            for (int i = 0; i < read; i++) {
+                b[off + i] = data[head];
+                head = (head + 1) % data.length;
+            }
+            count -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ru.ant.rc.serial.arduino2wd;
+
+import static ru.ant.rc.serial.arduino2wd.WheelMixer.packWheelSpeeds;
+
+/**Integer-only mixing for the values out of the lookup table.
+ * The vector magnitude saturates as soon as either shift reaches maxClientValue,
+ * so the rounded square root is taken of small numbers only.
+ * Gives the same wheel speeds as {@link ReferenceWheelMixer} while the shifts stay within +-1 000 000 000
+ * (beyond that the reference overflows int on rounding).
+ * @author Ant
+ * @version 1.0
+ */
+public class IntegerWheelMixer implements WheelMixer {
+    protected final int maxClientValue;
+    protected final int maxSpeed;
+
+    /**
+     * @param maxClientValue Joystick shift giving the full speed
+     * @param maxSpeed Full wheel speed
+     */
+    public IntegerWheelMixer(int maxClientValue, int maxSpeed) {
+        this.maxClientValue = maxClientValue;
+        this.maxSpeed = maxSpeed;
+    }
+
+    @Override
+    public long mixVector(int x, int y) {
+        int c = (isSaturated(x) || isSaturated(y)) ? this.maxSpeed : normalize(roundSqrt((long) x * x + (long) y * y));
+        int sign = (y<0)?-1:1;
+
+        int wheel = (y==0)?0:this.maxSpeed/(Math.abs(x/y)+1);
+        wheel = sign * Math.min(wheel, this.maxSpeed);
+        c = c * sign;
+
+        // (I) & (IV) quadrants: left wheel takes the magnitude, (II) & (III) quadrants: the right one
+        return (x >= 0) ? packWheelSpeeds(c, wheel) : packWheelSpeeds(wheel, c);
+    }
+
+    @Override
+    public long mixTractor(int left, int right) {
+        return packWheelSpeeds(-scaleTractor(left), -scaleTractor(right));
+    }
+
+    int scaleTractor(int value) {
+        int sign = (value<0)?-1:1;
+        return (Math.abs(value)>=this.maxClientValue)?sign*this.maxSpeed:value*this.maxSpeed/this.maxClientValue;
+    }
+
+    private boolean isSaturated(int value) {
+        return value >= this.maxClientValue || value <= -this.maxClientValue;
+    }
+
+    private int normalize(int c) {
+        return (c>=this.maxClientValue)?this.maxSpeed:this.maxSpeed * c / this.maxClientValue;
+    }
+
+    //Square root rounded half up. Exact half is impossible for an integer argument.
+    static int roundSqrt(long value) {
+        long root = 0;
+        long bit = 1L << 62;
+        while (bit > value) bit >>= 2;
+        while (bit != 0) {
+            if (value >= root + bit) {
+                value -= root + bit;
+                root = (root >> 1) + bit;
+            } else {
+                root >>= 1;
+            }
+            bit >>= 2;
+        }
+        //value is the remainder n - root^2 now
+        return (int) ((value > root) ? root + 1 : root);
+    }
+}
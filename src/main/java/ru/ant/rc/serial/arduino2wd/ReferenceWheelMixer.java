@@ -0,0 +1,56 @@
+package ru.ant.rc.serial.arduino2wd;
+
+import static ru.ant.rc.serial.arduino2wd.WheelMixer.packWheelSpeeds;
+
+/**Original floating-point mixing of Arduino2WDSerialDriver.
+ * Kept as the reference the faster mixers are checked against.
+ * @author Ant
+ * @version 1.0
+ */
+public class ReferenceWheelMixer extends IntegerWheelMixer {
+
+    public ReferenceWheelMixer(int maxClientValue, int maxSpeed) {
+        super(maxClientValue, maxSpeed);
+    }
+
+    @Override
+    public long mixVector(int x, int y) {
+
+        //Save max values - it is self adaptation
+        //if(Math.abs(x) > this.maxClientValue)this.maxClientValue = Math.abs(x);
+        //if(Math.abs(y) > this.maxClientValue)this.maxClientValue = Math.abs(y);
+        int c = (int) Math.round(Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2)));
+        //if(c > this.maxSpeed)this.maxSpeed = c;
+
+        //Normalize speeds to range 0..255 using max value
+        c = (c>=this.maxClientValue)?this.maxSpeed:this.maxSpeed * c / this.maxClientValue;
+        //x = (this.maxClientValue<=x)?this.maxSpeed:this.maxSpeed * x / this.maxClientValue;
+        int sign = (y<0)?-1:1;
+
+
+        y = (y==0)?0:this.maxSpeed/(Math.abs(x/y)+1);
+
+        y = (this.maxSpeed > y) ? y : this.maxSpeed;
+        y = sign * y;
+
+        //Set direction sign
+        c = c * sign;
+
+        //2WD transform from joystick Vector to wheel's speed
+        int  leftWheelSpeed = 0;
+        int rightWheelSpeed = 0;
+
+        // (I) & (IV) quadrants
+        if (x >= 0) {
+            leftWheelSpeed = c;
+            rightWheelSpeed = y;
+        }
+        // (II) & (III) quadrants
+        if (x < 0) {
+            rightWheelSpeed = c;
+            leftWheelSpeed = y;
+        }
+        //Format is "Digital:leftWheelSpeed,rightWheelSpeed"
+        return packWheelSpeeds(leftWheelSpeed, rightWheelSpeed);
+    }
+}
@@ -0,0 +1,68 @@
+package ru.ant.rc.serial.arduino2wd;
+
+import static ru.ant.rc.serial.arduino2wd.WheelMixer.leftWheelSpeed;
+import static ru.ant.rc.serial.arduino2wd.WheelMixer.packWheelSpeeds;
+import static ru.ant.rc.serial.arduino2wd.WheelMixer.rightWheelSpeed;
+
+/**Precomputed mixing: a single array load per command within the joystick range.
+ * Vector table holds both wheel speeds of every (x, y) as two int16 halves of int,
+ * so the 201x201 table for the range 100 takes 160 KB. Tractor scaling is the same for each wheel,
+ * so it takes a single row. Values out of the range are passed to the source mixer.
+ * @author Ant
+ * @version 1.0
+ */
+public class TableWheelMixer implements WheelMixer {
+    private final WheelMixer source;
+    private final int range;
+    private final int size;
+    private final int[] vectorTable;
+    private final int[] tractorTable;
+
+    /**
+     * @param source Mixer to fill the tables from and to pass the values out of the range to
+     * @param range Maximal absolute joystick shift kept in the tables
+     */
+    public TableWheelMixer(WheelMixer source, int range) {
+        this.source = source;
+        this.range = range;
+        this.size = 2 * range + 1;
+        this.vectorTable = new int[size * size];
+        this.tractorTable = new int[size];
+        for (int x = -range; x <= range; x++) {
+            for (int y = -range; y <= range; y++) {
+                vectorTable[index(x, y)] = packShorts(source.mixVector(x, y));
+            }
+            tractorTable[x + range] = leftWheelSpeed(source.mixTractor(x, 0));
+        }
+    }
+
+    @Override
+    public long mixVector(int x, int y) {
+        if (!inRange(x) || !inRange(y)) return source.mixVector(x, y);
+        int wheelSpeeds = vectorTable[index(x, y)];
+        return packWheelSpeeds(wheelSpeeds >> 16, (short) wheelSpeeds);
+    }
+
+    @Override
+    public long mixTractor(int left, int right) {
+        if (!inRange(left) || !inRange(right)) return source.mixTractor(left, right);
+        return packWheelSpeeds(tractorTable[left + range], tractorTable[right + range]);
+    }
+
+    private boolean inRange(int value) {
+        return value >= -range && value <= range;
+    }
+
+    private int index(int x, int y) {
+        return (x + range) * size + (y + range);
+    }
+
+    private int packShorts(long wheelSpeeds) {
+        int leftWheelSpeed = leftWheelSpeed(wheelSpeeds);
+        int rightWheelSpeed = rightWheelSpeed(wheelSpeeds);
+        if (leftWheelSpeed != (short) leftWheelSpeed || rightWheelSpeed != (short) rightWheelSpeed) {
+            throw new IllegalArgumentException("Wheel speeds " + leftWheelSpeed + "," + rightWheelSpeed + " do not fit int16");
+        }
+        return (leftWheelSpeed << 16) | (rightWheelSpeed & 0xFFFF);
+    }
+}
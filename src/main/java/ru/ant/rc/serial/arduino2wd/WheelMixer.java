@@ -0,0 +1,36 @@
+package ru.ant.rc.serial.arduino2wd;
+
+/**Translates joystick positions to the wheel speeds of 2WD chassis.
+ * Wheel speeds are packed into long to avoid allocation of Arduino2WDEachWheelCommand per command.
+ * Implementations are stateless after construction and may be shared between threads.
+ * @author Ant
+ * @version 1.0
+ */
+public interface WheelMixer {
+
+    /**Vector-style mixing of single joystick
+     * @param x X joystick shift
+     * @param y Y joystick shift
+     * @return Packed wheel speeds
+     */
+    long mixVector(int x, int y);
+
+    /**Tractor-style scaling of two joysticks
+     * @param left Left joystick speed
+     * @param right Right joystick speed
+     * @return Packed wheel speeds
+     */
+    long mixTractor(int left, int right);
+
+    static long packWheelSpeeds(int leftWheelSpeed, int rightWheelSpeed) {
+        return ((long) leftWheelSpeed << 32) | (rightWheelSpeed & 0xFFFFFFFFL);
+    }
+
+    static int leftWheelSpeed(long wheelSpeeds) {
+        return (int) (wheelSpeeds >> 32);
+    }
+
+    static int rightWheelSpeed(long wheelSpeeds) {
+        return (int) wheelSpeeds;
+    }
+}
@@ -0,0 +1,92 @@
+package ru.ant.rc.serial.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Lock-free histogram of durations with power of two buckets of microseconds.
+ * Bucket i counts durations below 2^i microseconds, so recording is a few atomic increments
+ * and percentiles are known up to the factor of two.
+ * @author Ant
+ * @version 1.0
+ */
+public class LatencyHistogram {
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos / 1000));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    private static int bucketOf(long micros) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @param bucket Bucket index
+     * @return Upper bound of the bucket in microseconds
+     */
+    public static long bucketLimitMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    /**
+     * @param bucket Bucket index
+     * @return Count of durations in the bucket
+     */
+    public long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    public long getMeanMicros() {
+        long count = getCount();
+        return (count == 0) ? 0 : getTotalNanos() / count / 1000;
+    }
+
+    /**
+     * @param percentile Percentile from 0 to 100
+     * @return Upper bound of the bucket holding the percentile in microseconds, 0 if nothing is recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += snapshot[i] = counts.get(i);
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) return bucketLimitMicros(i);
+        }
+        return bucketLimitMicros(BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + getMeanMicros() + "us p50<=" + getPercentileMicros(50)
+                + "us p99<=" + getPercentileMicros(99) + "us max=" + getMaxMicros() + "us";
+    }
+}
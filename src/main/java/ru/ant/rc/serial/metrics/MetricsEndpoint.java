@@ -0,0 +1,57 @@
+package ru.ant.rc.serial.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**Plain-text metrics of all robots at http://&lt;SerialMetrics.HttpHost&gt;:&lt;SerialMetrics.HttpPort&gt;/metrics
+ * served by the JDK built-in HTTP server. Started by the first {@link SerialMetrics#forRobot} call if the port is set.
+ * Its dispatcher thread keeps JVM alive, so call {@link #stop()} on application shutdown.
+ * @author Ant
+ * @version 1.0
+ */
+public class MetricsEndpoint {
+    private static final Logger logger = Logger.getLogger(MetricsEndpoint.class);
+    private static HttpServer server;
+
+    private MetricsEndpoint() {
+    }
+
+    /**Starts the endpoint unless it is already running
+     * @param host Address to bind, "localhost" keeps it local
+     * @param port Port to listen
+     */
+    public static synchronized void start(String host, int port) {
+        if (server != null) return;
+        try {
+            server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        } catch (IOException e) {
+            logger.error("Metrics endpoint is not started on " + host + ":" + port + ": " + e.getMessage());
+            return;
+        }
+        server.createContext("/metrics", exchange -> {
+            StringBuilder text = new StringBuilder();
+            for (SerialMetrics metrics : SerialMetrics.getAll()) metrics.writeText(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        logger.info("Metrics endpoint is listening on http://" + host + ":" + port + "/metrics");
+    }
+
+    /**Stops the endpoint if it is running
+     */
+    public static synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        server = null;
+    }
+}
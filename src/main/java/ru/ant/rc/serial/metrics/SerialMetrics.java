@@ -0,0 +1,290 @@
+package ru.ant.rc.serial.metrics;
+
+import org.apache.log4j.Logger;
+import ru.ant.rc.serial.Config;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**Counters of one robot: round trips per command, timeouts, queue depth, bypassed commands,
+ * reconnects and hardware state refreshes.
+ * All counters are lock-free (LongAdder and atomic arrays), so the hot path pays a few atomic increments.
+ * Metrics are shared by all components of the robot through {@link #forRobot(Config)},
+ * published by JMX unless SerialMetrics.Jmx=false and by {@link MetricsEndpoint} if SerialMetrics.HttpPort is set.
+ * @author Ant
+ * @version 1.0
+ */
+public class SerialMetrics implements SerialMetricsMBean {
+    private static final String DEFAULT_ROBOT = "default";
+    private static final String FRAME_COMMAND = "frame:";
+    private static final ConcurrentMap<String, SerialMetrics> ROBOTS = new ConcurrentHashMap<>();
+
+    private final String robotName;
+    private final ConcurrentMap<String, LatencyHistogram> roundTrips = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<LatencyHistogram> frameRoundTrips = new AtomicReferenceArray<>(256);
+    private final LongAdder commandsSent = new LongAdder();
+    private final LongAdder answerTimeouts = new LongAdder();
+    private final LongAdder lostAnswers = new LongAdder();
+    private final LongAdder[] bypassed = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+    private final LongAdder expiredOnEnqueue = new LongAdder();
+    private final LongAdder emergencyStops = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder reconnectFailures = new LongAdder();
+    private final LatencyHistogram reconnectDurations = new LatencyHistogram();
+    private final LatencyHistogram refreshDurations = new LatencyHistogram();
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    /**Creates metrics not published anywhere, e.g. for benchmarks.
+     * Applications use {@link #forRobot(Config)}.
+     * @param robotName Robot name or null for the single robot
+     */
+    public SerialMetrics(String robotName) {
+        this.robotName = (robotName == null) ? DEFAULT_ROBOT : robotName;
+    }
+
+    /**Returns the metrics of the robot, creating and publishing them on the first call
+     * @param config Options of the robot
+     * @return Metrics shared by all components of the robot
+     */
+    public static SerialMetrics forRobot(Config config) {
+        String robotName = (config.getRobotName() == null) ? DEFAULT_ROBOT : config.getRobotName();
+        SerialMetrics metrics = ROBOTS.get(robotName);
+        if (metrics != null) return metrics;
+        metrics = new SerialMetrics(robotName);
+        SerialMetrics existing = ROBOTS.putIfAbsent(robotName, metrics);
+        if (existing != null) return existing;
+        if (Boolean.parseBoolean(config.getOption(Config.METRICS_JMX, "true"))) metrics.registerMBean();
+        int httpPort = Integer.parseInt(config.getOption(Config.METRICS_HTTP_PORT, "0"));
+        if (httpPort > 0) MetricsEndpoint.start(config.getOption(Config.METRICS_HTTP_HOST, "localhost"), httpPort);
+        return metrics;
+    }
+
+    /**
+     * @return Metrics of all robots created so far
+     */
+    public static Collection<SerialMetrics> getAll() {
+        return ROBOTS.values();
+    }
+
+    private void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("ru.ant.rc.serial:type=SerialMetrics,robot=" + ObjectName.quote(robotName)));
+        } catch (JMException e) {
+            Logger.getLogger(this.getClass()).error("Metrics of " + robotName + " are not published by JMX: " + e.getMessage());
+        }
+    }
+
+    public String getRobotName() {
+        return robotName;
+    }
+
+    /**Round trip histogram of the text command
+     * @param command Command text without arguments, e.g. "Digital:"
+     */
+    public LatencyHistogram roundTrip(String command) {
+        LatencyHistogram histogram = roundTrips.get(command);
+        if (histogram == null) histogram = roundTrips.computeIfAbsent(command, key -> new LatencyHistogram());
+        return histogram;
+    }
+
+    /**Round trip histogram of the binary frame
+     * @param opcode Frame operation code
+     */
+    public LatencyHistogram frameRoundTrip(int opcode) {
+        int index = opcode & 0xFF;
+        LatencyHistogram histogram = frameRoundTrips.get(index);
+        if (histogram != null) return histogram;
+        histogram = roundTrip(FRAME_COMMAND + index);
+        frameRoundTrips.compareAndSet(index, null, histogram);
+        return histogram;
+    }
+
+    public void commandSent() {
+        commandsSent.increment();
+    }
+
+    public void answerTimeout() {
+        answerTimeouts.increment();
+    }
+
+    public void answerLost() {
+        lostAnswers.increment();
+    }
+
+    /**
+     * @param rule Bypass rule number from 1 to 4 as in CommandFilter.CheckBypass1..4
+     */
+    public void commandBypassed(int rule) {
+        bypassed[rule - 1].increment();
+    }
+
+    /**Command expired before it was put into the queue
+     */
+    public void commandExpired() {
+        expiredOnEnqueue.increment();
+    }
+
+    /**Stop was written by the emergency lane, its round trip is counted by {@link #frameRoundTrip(int)}
+     */
+    public void emergencyStop() {
+        emergencyStops.increment();
+    }
+
+    /**
+     * @param queueDepth Source of the current queue length
+     */
+    public void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @param outageNanos Time from the link loss to the restored link
+     */
+    public void reconnected(long outageNanos) {
+        reconnects.increment();
+        reconnectDurations.record(outageNanos);
+    }
+
+    public void reconnectFailed() {
+        reconnectFailures.increment();
+    }
+
+    public void refreshed(long nanos) {
+        refreshDurations.record(nanos);
+    }
+
+    @Override
+    public long getCommandsSent() {
+        return commandsSent.sum();
+    }
+
+    @Override
+    public long getAnswerTimeouts() {
+        return answerTimeouts.sum();
+    }
+
+    @Override
+    public long getLostAnswers() {
+        return lostAnswers.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getBypassedOutdated() {
+        return bypassed[0].sum();
+    }
+
+    @Override
+    public long getBypassedRepeated() {
+        return bypassed[1].sum();
+    }
+
+    @Override
+    public long getBypassedOverflow() {
+        return bypassed[2].sum();
+    }
+
+    @Override
+    public long getBypassedExpired() {
+        return bypassed[3].sum();
+    }
+
+    @Override
+    public long getExpiredOnEnqueue() {
+        return expiredOnEnqueue.sum();
+    }
+
+    @Override
+    public long getEmergencyStops() {
+        return emergencyStops.sum();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public long getReconnectFailures() {
+        return reconnectFailures.sum();
+    }
+
+    @Override
+    public String getReconnectDurations() {
+        return reconnectDurations.toString();
+    }
+
+    @Override
+    public String getRefreshDurations() {
+        return refreshDurations.toString();
+    }
+
+    @Override
+    public String[] getRoundTrips() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : roundTrips.entrySet()) {
+            lines.add(entry.getKey() + " " + entry.getValue());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**Appends the metrics in Prometheus text exposition format.
+     * Durations are in seconds, histogram buckets are cumulative.
+     */
+    public void writeText(StringBuilder out) {
+        String robot = "robot=\"" + robotName + "\"";
+        writeValue(out, "serial_commands_sent_total", robot, getCommandsSent());
+        writeValue(out, "serial_answer_timeouts_total", robot, getAnswerTimeouts());
+        writeValue(out, "serial_lost_answers_total", robot, getLostAnswers());
+        writeValue(out, "serial_queue_depth", robot, getQueueDepth());
+        writeValue(out, "serial_bypassed_total", robot + ",rule=\"outdated\"", getBypassedOutdated());
+        writeValue(out, "serial_bypassed_total", robot + ",rule=\"repeated\"", getBypassedRepeated());
+        writeValue(out, "serial_bypassed_total", robot + ",rule=\"overflow\"", getBypassedOverflow());
+        writeValue(out, "serial_bypassed_total", robot + ",rule=\"expired\"", getBypassedExpired());
+        writeValue(out, "serial_expired_on_enqueue_total", robot, getExpiredOnEnqueue());
+        writeValue(out, "serial_emergency_stops_total", robot, getEmergencyStops());
+        writeValue(out, "serial_reconnects_total", robot, getReconnects());
+        writeValue(out, "serial_reconnect_failures_total", robot, getReconnectFailures());
+        writeHistogram(out, "serial_reconnect_seconds", robot, reconnectDurations);
+        writeHistogram(out, "serial_refresh_seconds", robot, refreshDurations);
+        for (Map.Entry<String, LatencyHistogram> entry : roundTrips.entrySet()) {
+            writeHistogram(out, "serial_round_trip_seconds", robot + ",command=\"" + entry.getKey().replace("\"", "") + "\"", entry.getValue());
+        }
+    }
+
+    private static void writeValue(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        //Empty buckets below the fastest and above the slowest duration are skipped
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) total += counts[i] = histogram.getBucketCount(i);
+        long cumulative = 0;
+        for (int i = 0; i < counts.length - 1 && cumulative < total; i++) {
+            if (counts[i] == 0 && cumulative == 0) continue;
+            cumulative += counts[i];
+            out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                    .append(LatencyHistogram.bucketLimitMicros(i) / 1e6).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(total).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(histogram.getTotalNanos() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(total).append('\n');
+    }
+}
@@ -0,0 +1,65 @@
+package ru.ant.rc.serial.metrics;
+
+/**JMX view of {@link SerialMetrics}, registered as "ru.ant.rc.serial:type=SerialMetrics,robot=&lt;robotName&gt;".
+ * @author Ant
+ * @version 1.0
+ */
+public interface SerialMetricsMBean {
+
+    long getCommandsSent();
+
+    long getAnswerTimeouts();
+
+    long getLostAnswers();
+
+    int getQueueDepth();
+
+    /**
+     * @return Commands older than the last sent one (CheckBypass1)
+     */
+    long getBypassedOutdated();
+
+    /**
+     * @return Commands equal to the last sent one (CheckBypass2)
+     */
+    long getBypassedRepeated();
+
+    /**
+     * @return Commands bypassed because the queue was too long (CheckBypass3)
+     */
+    long getBypassedOverflow();
+
+    /**
+     * @return Commands expired while waiting in the queue (CheckBypass4)
+     */
+    long getBypassedExpired();
+
+    /**
+     * @return Commands expired before they were put into the queue
+     */
+    long getExpiredOnEnqueue();
+
+    /**
+     * @return Stops sent ahead of the queue by SerialService.emergencyStop()
+     */
+    long getEmergencyStops();
+
+    long getReconnects();
+
+    long getReconnectFailures();
+
+    /**
+     * @return Outage from the link loss to the restored link, one line summary
+     */
+    String getReconnectDurations();
+
+    /**
+     * @return Hardware state refresh round trips, one line summary
+     */
+    String getRefreshDurations();
+
+    /**
+     * @return Round trip summary per command, one line per command
+     */
+    String[] getRoundTrips();
+}
@@ -0,0 +1,233 @@
+package ru.ant.rc.serial.recorder;
+
+import org.apache.log4j.Logger;
+import ru.ant.rc.serial.Command;
+import ru.ant.rc.serial.Config;
+import ru.ant.rc.serial.TractorCommand;
+import ru.ant.rc.serial.VectorCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Always-on recorder of the command and answer streams of one robot.
+ * Every enqueued command, bypass decision, sent command and received answer is written as a fixed-size
+ * binary record into a ring of FlightRecorder.Records slots of the memory-mapped file
+ * "&lt;FlightRecorder.Directory&gt;/flight-&lt;robot&gt;.rec". Writers claim slots by single atomic increment
+ * and write straight into the mapped memory without locks, so a record costs a few nanoseconds.
+ * Written records are in the OS page cache at once and survive JVM crash.
+ * Recording of the previous run is kept as "flight-&lt;robot&gt;.rec.1".
+ * It is on unless FlightRecorder.Enabled=false, e.g. in the benchmarks.
+ * Use {@link FlightRecording} to read and {@link FlightReplay} to replay it.
+ * <p>
+ * File is a header of {@link #HEADER_SIZE} bytes: magic, version, record size, capacity, start epoch millis;
+ * then the slots of {@link #RECORD_SIZE} bytes: sequence (0 for empty slot), nanos since start,
+ * type, kind, int16 checksum, three int arguments and long value.
+ * Sequence is cleared before the fields are written and set last, the checksum covers the whole record,
+ * so the slot torn by the crash is not taken for the complete one.
+ * </p>
+ * @author Ant
+ * @version 1.0
+ */
+public class FlightRecorder {
+    public static final int MAGIC = 0x464C5243;
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 40;
+
+    /**Command put into the queue. Kind is {@link #KIND_VECTOR} or {@link #KIND_TRACTOR}, arguments are x,y
+     * or left,right, value is Command.timeMillis
+     */
+    public static final byte COMMAND_ENQUEUED = 1;
+    /**Command bypassed by SerialService. Kind and arguments as for {@link #COMMAND_ENQUEUED},
+     * third argument is CommandFilter rule number
+     */
+    public static final byte COMMAND_BYPASSED = 2;
+    /**Command written to the port. Kind is frame opcode or {@link #KIND_TEXT}, arguments are the command arguments
+     * and the sequence, value is up to 8 first ASCII characters of the text command
+     */
+    public static final byte COMMAND_SENT = 3;
+    /**Answer or its absence. Kind as for {@link #COMMAND_SENT}, arguments are the sequence and {@link #STATUS_OK},
+     * {@link #STATUS_ERROR} or {@link #STATUS_TIMEOUT}, value is round trip nanos
+     */
+    public static final byte ANSWER_RECEIVED = 4;
+
+    public static final byte KIND_OTHER = 0;
+    public static final byte KIND_VECTOR = 1;
+    public static final byte KIND_TRACTOR = 2;
+    public static final byte KIND_TEXT = -1;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+    public static final int STATUS_TIMEOUT = 2;
+
+    private static final String DEFAULT_ROBOT = "default";
+    private static final ConcurrentMap<String, FlightRecorder> ROBOTS = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long startNanos;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private FlightRecorder(MappedByteBuffer buffer, int capacity) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**Returns the recorder of the robot, opening its file on the first call.
+     * Recorder writing nothing is returned if FlightRecorder.Enabled=false or the file can not be opened.
+     * @param config Options of the robot
+     * @return Recorder shared by all components of the robot
+     */
+    public static FlightRecorder forRobot(Config config) {
+        String robotName = (config.getRobotName() == null) ? DEFAULT_ROBOT : config.getRobotName();
+        return ROBOTS.computeIfAbsent(robotName, name -> open(config, name));
+    }
+
+    private static FlightRecorder open(Config config, String robotName) {
+        if (!Boolean.parseBoolean(config.getOption(Config.FLIGHT_RECORDER_ENABLED, "true"))) return new FlightRecorder(null, 0);
+        File file = new File(config.getOption(Config.FLIGHT_RECORDER_DIRECTORY, "."), "flight-" + robotName + ".rec");
+        int capacity = Integer.parseInt(config.getOption(Config.FLIGHT_RECORDER_RECORDS, "65536"));
+        try {
+            return new FlightRecorder(map(file, capacity), capacity);
+        } catch (IOException e) {
+            Logger.getLogger(FlightRecorder.class).error("Flight recorder is off, " + file + " can not be mapped: " + e.getMessage());
+            return new FlightRecorder(null, 0);
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int capacity) throws IOException {
+        if (file.exists()) {
+            File previous = new File(file.getPath() + ".1");
+            if ((previous.exists() && !previous.delete()) || !file.renameTo(previous)) {
+                throw new IOException("Previous recording can not be kept as " + previous);
+            }
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            long size = HEADER_SIZE + (long) RECORD_SIZE * capacity;
+            randomAccessFile.setLength(size);
+            //Mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putInt(12, capacity);
+            buffer.putLong(16, System.currentTimeMillis());
+            return buffer;
+        }
+    }
+
+    /**
+     * @return False if the recorder writes nothing
+     */
+    public boolean isEnabled() {
+        return buffer != null;
+    }
+
+    public void commandEnqueued(Command command) {
+        if (buffer == null) return;
+        recordCommand(COMMAND_ENQUEUED, command, 0);
+    }
+
+    /**
+     * @param rule CommandFilter rule number
+     */
+    public void commandBypassed(Command command, int rule) {
+        if (buffer == null) return;
+        recordCommand(COMMAND_BYPASSED, command, rule);
+    }
+
+    private void recordCommand(byte type, Command command, int rule) {
+        if (command instanceof VectorCommand) {
+            VectorCommand vectorCommand = (VectorCommand) command;
+            write(type, KIND_VECTOR, vectorCommand.x, vectorCommand.y, rule, command.timeMillis);
+        } else if (command instanceof TractorCommand) {
+            TractorCommand tractorCommand = (TractorCommand) command;
+            write(type, KIND_TRACTOR, tractorCommand.left, tractorCommand.right, rule, command.timeMillis);
+        } else {
+            write(type, KIND_OTHER, 0, 0, rule, command.timeMillis);
+        }
+    }
+
+    /**
+     * @param opcode Frame opcode or negative for the text command
+     * @param command Text command, its first 8 characters are kept
+     */
+    public void commandSent(int opcode, String command, int firstArgument, int secondArgument, int sequence) {
+        if (buffer == null) return;
+        if (opcode < 0) {
+            write(COMMAND_SENT, KIND_TEXT, firstArgument, secondArgument, sequence, packName(command));
+        } else {
+            write(COMMAND_SENT, (byte) opcode, firstArgument, secondArgument, sequence, 0);
+        }
+    }
+
+    /**
+     * @param opcode Frame opcode or negative for the text command
+     * @param status {@link #STATUS_OK}, {@link #STATUS_ERROR} or {@link #STATUS_TIMEOUT}
+     */
+    public void answerReceived(int opcode, int sequence, int status, long roundTripNanos) {
+        if (buffer == null) return;
+        write(ANSWER_RECEIVED, (opcode < 0) ? KIND_TEXT : (byte) opcode, sequence, status, 0, roundTripNanos);
+    }
+
+    private void write(byte type, byte kind, int firstArgument, int secondArgument, int thirdArgument, long value) {
+        long sequence = nextSequence.incrementAndGet();
+        int offset = HEADER_SIZE + (int) ((sequence - 1) % capacity) * RECORD_SIZE;
+        long nanos = System.nanoTime() - startNanos;
+        //Slot of the wrapped ring still holds the valid sequence of the old record
+        buffer.putLong(offset, 0);
+        buffer.putLong(offset + 8, nanos);
+        buffer.put(offset + 16, type);
+        buffer.put(offset + 17, kind);
+        buffer.putShort(offset + 18, checksum(sequence, nanos, type, kind, firstArgument, secondArgument, thirdArgument, value));
+        buffer.putInt(offset + 20, firstArgument);
+        buffer.putInt(offset + 24, secondArgument);
+        buffer.putInt(offset + 28, thirdArgument);
+        buffer.putLong(offset + 32, value);
+        //Sequence marks the slot as complete
+        buffer.putLong(offset, sequence);
+    }
+
+    static short checksum(long sequence, long nanos, byte type, byte kind, int firstArgument, int secondArgument, int thirdArgument, long value) {
+        long hash = sequence;
+        hash = hash * 31 + nanos;
+        hash = hash * 31 + (((type & 0xFF) << 8) | (kind & 0xFF));
+        hash = hash * 31 + firstArgument;
+        hash = hash * 31 + secondArgument;
+        hash = hash * 31 + thirdArgument;
+        hash = hash * 31 + value;
+        hash ^= hash >>> 32;
+        return (short) (hash ^ (hash >>> 16));
+    }
+
+    static long packName(String command) {
+        long name = 0;
+        for (int i = 0; i < 8; i++) {
+            name = (name << 8) | ((i < command.length()) ? (command.charAt(i) & 0xFF) : 0);
+        }
+        return name;
+    }
+
+    static String unpackName(long name) {
+        StringBuilder command = new StringBuilder(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            char character = (char) ((name >>> shift) & 0xFF);
+            if (character == 0) break;
+            command.append(character);
+        }
+        return command.toString();
+    }
+
+    /**Flushes written records to the disk, e.g. before the planned shutdown
+     */
+    public void force() {
+        if (buffer != null) buffer.force();
+    }
+}
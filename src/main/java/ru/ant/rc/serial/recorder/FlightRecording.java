@@ -0,0 +1,141 @@
+package ru.ant.rc.serial.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**Recording of {@link FlightRecorder} read back from its file.
+ * Records are ordered by sequence. Slots overwritten by the ring wrap or torn by the crash are skipped.
+ * @author Ant
+ * @version 1.0
+ */
+public class FlightRecording {
+    private final long startMillis;
+    private final List<Record> records;
+
+    private FlightRecording(long startMillis, List<Record> records) {
+        this.startMillis = startMillis;
+        this.records = records;
+    }
+
+    /**
+     * @param file Recording file, e.g. "flight-default.rec" or "flight-default.rec.1" of the previous run
+     */
+    public static FlightRecording read(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < FlightRecorder.HEADER_SIZE || buffer.getInt(0) != FlightRecorder.MAGIC) {
+                throw new IOException(file + " is not a flight recording");
+            }
+            int version = buffer.getInt(4);
+            //Version 1 has no checksum
+            if (version < 1 || version > FlightRecorder.VERSION || buffer.getInt(8) != FlightRecorder.RECORD_SIZE) {
+                throw new IOException(file + " has unsupported version " + buffer.getInt(4));
+            }
+            int capacity = buffer.getInt(12);
+            if (buffer.limit() < FlightRecorder.HEADER_SIZE + (long) capacity * FlightRecorder.RECORD_SIZE) {
+                throw new IOException(file + " is truncated");
+            }
+            List<Record> records = new ArrayList<>();
+            for (int slot = 0; slot < capacity; slot++) {
+                int offset = FlightRecorder.HEADER_SIZE + slot * FlightRecorder.RECORD_SIZE;
+                long sequence = buffer.getLong(offset);
+                if (sequence <= 0 || (sequence - 1) % capacity != slot) continue;
+                Record record = new Record(sequence, buffer.getLong(offset + 8), buffer.get(offset + 16), buffer.get(offset + 17),
+                        buffer.getInt(offset + 20), buffer.getInt(offset + 24), buffer.getInt(offset + 28), buffer.getLong(offset + 32));
+                if (version > 1 && buffer.getShort(offset + 18) != FlightRecorder.checksum(record.sequence, record.nanos, record.type,
+                        record.kind, record.firstArgument, record.secondArgument, record.thirdArgument, record.value)) continue;
+                records.add(record);
+            }
+            Collections.sort(records);
+            return new FlightRecording(buffer.getLong(16), records);
+        }
+    }
+
+    /**
+     * @return Epoch millis the recorder was started at
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return Records ordered by sequence
+     */
+    public List<Record> getRecords() {
+        return Collections.unmodifiableList(records);
+    }
+
+    @Override
+    public String toString() {
+        return "Flight recording of " + records.size() + " records started at " + new Date(startMillis);
+    }
+
+    /**Single record. Meaning of the fields depends on the type, see {@link FlightRecorder} type constants.
+     */
+    public static final class Record implements Comparable<Record> {
+        public final long sequence;
+        public final long nanos;
+        public final byte type;
+        public final byte kind;
+        public final int firstArgument;
+        public final int secondArgument;
+        public final int thirdArgument;
+        public final long value;
+
+        Record(long sequence, long nanos, byte type, byte kind, int firstArgument, int secondArgument, int thirdArgument, long value) {
+            this.sequence = sequence;
+            this.nanos = nanos;
+            this.type = type;
+            this.kind = kind;
+            this.firstArgument = firstArgument;
+            this.secondArgument = secondArgument;
+            this.thirdArgument = thirdArgument;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Record record) {
+            return Long.compare(sequence, record.sequence);
+        }
+
+        @Override
+        public String toString() {
+            String time = String.format("%d %.6f ", sequence, nanos / 1e9);
+            switch (type) {
+                case FlightRecorder.COMMAND_ENQUEUED:
+                    return time + "enqueued " + describeCommand();
+                case FlightRecorder.COMMAND_BYPASSED:
+                    return time + "bypassed by rule " + thirdArgument + " " + describeCommand();
+                case FlightRecorder.COMMAND_SENT:
+                    return time + "sent #" + thirdArgument + " " + describeKind() + " " + firstArgument + "," + secondArgument;
+                case FlightRecorder.ANSWER_RECEIVED:
+                    return time + "answer #" + firstArgument + " " + describeKind() + " " + describeStatus() + " in " + value / 1000 + "us";
+                default:
+                    return time + "unknown type " + type;
+            }
+        }
+
+        private String describeCommand() {
+            String name = (kind == FlightRecorder.KIND_VECTOR) ? "vector" : (kind == FlightRecorder.KIND_TRACTOR) ? "tractor" : "other";
+            return name + " " + firstArgument + "," + secondArgument + " at " + value;
+        }
+
+        private String describeKind() {
+            if (kind != FlightRecorder.KIND_TEXT) return "frame " + (kind & 0xFF);
+            return (type == FlightRecorder.COMMAND_SENT) ? "\"" + FlightRecorder.unpackName(value) + "\"" : "text";
+        }
+
+        private String describeStatus() {
+            if (secondArgument == FlightRecorder.STATUS_OK) return "ok";
+            return (secondArgument == FlightRecorder.STATUS_TIMEOUT) ? "timeout" : "error";
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.ant.rc.serial.recorder;
+
+import org.apache.log4j.Logger;
+import ru.ant.rc.serial.Command;
+import ru.ant.rc.serial.CommandQueue;
+import ru.ant.rc.serial.Config;
+import ru.ant.rc.serial.SerialService;
+import ru.ant.rc.serial.TractorCommand;
+import ru.ant.rc.serial.VectorCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**Feeds the enqueued commands of a {@link FlightRecording} back into CommandQueue,
+ * so they pass SerialService, SerialDriver and SerialCommunicator again.
+ * Commands are put at the recorded pace divided by the speed, 0 speed puts them at once.
+ * Command timestamps are shifted to the replay start, their order and gaps are kept, so bypass decisions repeat.
+ * <p>
+ * java -cp ... ru.ant.rc.serial.recorder.FlightReplay flight-default.rec.1 [speed [robotName]]<br />
+ * java -cp ... ru.ant.rc.serial.recorder.FlightReplay -dump flight-default.rec.1<br />
+ * </p>
+ * @author Ant
+ * @version 1.0
+ */
+public class FlightReplay {
+    private static final Logger logger = Logger.getLogger(FlightReplay.class);
+
+    private final FlightRecording recording;
+    private final double speed;
+
+    /**
+     * @param recording Recording to replay
+     * @param speed Pace factor: 1 for the recorded pace, 10 for ten times faster, 0 for no pauses
+     */
+    public FlightReplay(FlightRecording recording, double speed) {
+        this.recording = recording;
+        this.speed = speed;
+    }
+
+    /**Puts the recorded commands into the queue. Blocks until the last one is put.
+     * @param commandQueue Queue of the service to load
+     * @return Count of the commands put
+     */
+    public int replay(CommandQueue commandQueue) {
+        long startNanos = System.nanoTime();
+        long timeShift = 0;
+        long firstNanos = -1;
+        int count = 0;
+        for (FlightRecording.Record record : recording.getRecords()) {
+            if (record.type != FlightRecorder.COMMAND_ENQUEUED) continue;
+            if (firstNanos < 0) {
+                firstNanos = record.nanos;
+                timeShift = System.currentTimeMillis() - record.value;
+            }
+            if (speed > 0) waitUntil(startNanos + (long) ((record.nanos - firstNanos) / speed));
+            Command command = toCommand(record, record.value + timeShift);
+            if (command == null) continue;
+            commandQueue.put(command);
+            count++;
+        }
+        return count;
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    private Command toCommand(FlightRecording.Record record, long timeMillis) {
+        if (record.kind == FlightRecorder.KIND_VECTOR) return new VectorCommand(record.firstArgument, record.secondArgument, timeMillis);
+        if (record.kind == FlightRecorder.KIND_TRACTOR) return new TractorCommand(record.firstArgument, record.secondArgument, timeMillis);
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: FlightReplay <recording> [speed [robotName]] | -dump <recording>");
+            return;
+        }
+        if ("-dump".equals(args[0]) && args.length > 1) {
+            FlightRecording recording = FlightRecording.read(new File(args[1]));
+            System.out.println(recording);
+            for (FlightRecording.Record record : recording.getRecords()) System.out.println(record);
+            return;
+        }
+        //Read before the service starts its own recorder, it may rotate the same file
+        FlightRecording recording = FlightRecording.read(new File(args[0]));
+        double speed = (args.length > 1) ? Double.parseDouble(args[1]) : 1;
+        SerialService serialService = (args.length > 2) ? new SerialService(new Config(args[2])) : SerialService.getInstance();
+        logger.info("Replaying " + recording + " at speed " + speed);
+        int count = new FlightReplay(recording, speed).replay(serialService.getCommandQueue());
+        logger.info(count + " commands replayed");
+        try {
+            //Let the service send the tail of the queue
+            TimeUnit.SECONDS.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        serialService.destroy();
+    }
+}
@@ -0,0 +1,43 @@
+package ru.ant.rc.serial;
+
+import org.junit.Test;
+import ru.ant.rc.serial.metrics.SerialMetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**Checks that the expired motion is dropped while the expired stop still reaches the robot.
+ * @author Ant
+ * @version 1.0
+ */
+public class CommandFilterTest {
+    private static final long COMMAND_TTL = 100;
+
+    @Test
+    public void expiredMotionIsBypassed() {
+        CommandFilter filter = new CommandFilter(10, COMMAND_TTL, new SerialMetrics(null));
+        long old = System.currentTimeMillis() - 10 * COMMAND_TTL;
+        assertEquals(CommandFilter.RULE_EXPIRED, filter.bypassRule(new TractorCommand(100, 100, old), TractorCommand.STOP(0), 0));
+        assertEquals(CommandFilter.RULE_EXPIRED, filter.bypassRule(new VectorCommand(0, 100, old), VectorCommand.STOP(0), 0));
+    }
+
+    @Test
+    public void expiredZeroSetpointIsSent() {
+        CommandFilter filter = new CommandFilter(10, COMMAND_TTL, new SerialMetrics(null));
+        long old = System.currentTimeMillis() - 10 * COMMAND_TTL;
+        assertEquals(0, filter.bypassRule(new TractorCommand(0, 0, old), new TractorCommand(100, 100, old - 1), 0));
+        assertEquals(0, filter.bypassRule(new VectorCommand(0, 0, old), new VectorCommand(0, 100, old - 1), 0));
+    }
+
+    @Test
+    public void expiredZeroSetpointIsQueued() {
+        CommandQueue queue = new CommandQueue();
+        queue.setCommandTtl(COMMAND_TTL, null);
+        long old = System.currentTimeMillis() - 10 * COMMAND_TTL;
+        queue.put(new TractorCommand(100, 100, old));
+        assertNull("Expired motion is queued", queue.poll());
+        queue.put(new TractorCommand(0, 0, old));
+        assertNotNull("Expired stop is dropped", queue.poll());
+    }
+}
@@ -0,0 +1,74 @@
+package ru.ant.rc.serial;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**Checks that the compressed samples are decoded exactly and the rolling windows follow the last samples.
+ * @author Ant
+ * @version 1.0
+ */
+public class TelemetryHistoryTest {
+    private static final boolean[] COUNTERS = {false, true, false};
+    private final Random random = new Random(42);
+
+    @Test
+    public void samplesSurviveRoundTrip() {
+        TelemetryHistory history = new TelemetryHistory(COUNTERS, 4, new int[]{10});
+        int sampleCount = 5000;
+        long[] times = new long[sampleCount];
+        int[][] values = new int[sampleCount][COUNTERS.length];
+        long time = 1_000_000;
+        int counter = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            //Irregular steps, rare long gaps and extreme values
+            time += (i % 1000 == 999) ? 5000 : 1 + random.nextInt(20);
+            counter += (i % 700 == 0) ? Integer.MAX_VALUE : random.nextInt(1000);
+            times[i] = time;
+            values[i][0] = (i % 500 == 0) ? Integer.MIN_VALUE : 700 + random.nextInt(16);
+            values[i][1] = counter;
+            values[i][2] = random.nextInt();
+            history.add(times[i], values[i]);
+        }
+
+        //Oldest blocks are dropped by the ring, the kept samples are the last ones
+        int kept = history.getSampleCount();
+        int first = sampleCount - kept;
+        assertTrue("Ring is not wrapped", first > 0);
+        assertEquals(times[first], history.getOldestTime());
+        int buckets = (int) (times[sampleCount - 1] - times[first] + 1);
+        int[] mins = new int[buckets];
+        int[] maxs = new int[buckets];
+        double[] means = new double[buckets];
+        for (int field = 0; field < COUNTERS.length; field++) {
+            assertEquals(kept, history.query(field, times[first], 1, mins, maxs, means));
+            for (int i = first; i < sampleCount; i++) {
+                int bucket = (int) (times[i] - times[first]);
+                assertEquals("Field " + field + " sample " + i, values[i][field], mins[bucket]);
+                assertEquals("Field " + field + " sample " + i, values[i][field], maxs[bucket]);
+                assertEquals("Field " + field + " sample " + i, values[i][field], means[bucket], 0);
+            }
+        }
+    }
+
+    @Test
+    public void windowsCoverLastSamples() {
+        TelemetryHistory history = new TelemetryHistory(COUNTERS, 2, new int[]{3, 10});
+        int[] gauge = {5, 1, 9, 7, 3, 8, 2, 6, 4, 10, 0, 11};
+        for (int i = 0; i < gauge.length; i++) history.add(1000 + i, new int[]{gauge[i], i, 0});
+        assertEquals(0, history.getMin(0, 0));
+        assertEquals(11, history.getMax(0, 0));
+        assertEquals(7.0, history.getMean(0, 0), 1e-9);
+        assertEquals(0, history.getMin(0, 1));
+        assertEquals(11, history.getMax(0, 1));
+        assertEquals(6.0, history.getMean(0, 1), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyWindowIsRejected() {
+        new TelemetryHistory(COUNTERS, 2, new int[]{10, 0});
+    }
+}
@@ -0,0 +1,35 @@
+package ru.ant.rc.serial.arduino2wd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**Checks the fast mixers against the original double formula for every joystick position.
+ * @author Ant
+ * @version 1.0
+ */
+public class WheelMixerTest {
+    private final int maxClientValue = 100;
+    private final int maxSpeed = 255;
+    private final WheelMixer reference = new ReferenceWheelMixer(maxClientValue, maxSpeed);
+    private final IntegerWheelMixer integerMixer = new IntegerWheelMixer(maxClientValue, maxSpeed);
+
+    @Test
+    public void integerMixerMatchesReference() {
+        assertSameMixing(integerMixer);
+    }
+
+    @Test
+    public void tableMixerMatchesReference() {
+        assertSameMixing(new TableWheelMixer(integerMixer, maxClientValue));
+    }
+
+    private void assertSameMixing(WheelMixer mixer) {
+        for (int x = -maxClientValue; x <= maxClientValue; x++) {
+            for (int y = -maxClientValue; y <= maxClientValue; y++) {
+                assertEquals("Vector " + x + "," + y, reference.mixVector(x, y), mixer.mixVector(x, y));
+                assertEquals("Tractor " + x + "," + y, reference.mixTractor(x, y), mixer.mixTractor(x, y));
+            }
+        }
+    }
+}